@@ -0,0 +1,196 @@
+package com.hyman.distributed.lock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应并发限流（TCP Vegas 算法），进程内
+ *
+ * 固定的限流值很难设置：下游变慢时显得太松，请求在下游排队，延迟越来越高；下游变快时又显得太紧。自适应限流不限制速率，而是
+ * 限制同时在执行的请求数，并根据观察到的响应时间不断调整这个上限：
+ * 1，记录无负载时的响应时间（观察到的最小值），用 上限 × (1 - 最小响应时间 / 当前响应时间) 估算排队中的请求数。
+ * 2，排队很少时说明还有余量，增大上限；排队较多时说明下游已经饱和，减小上限；请求出错时按丢包处理，减小上限。
+ * 3，最小响应时间会定期重新探测，避免下游性能永久变化后一直参照过时的值。探测时把上限临时降到 minLimit，取并发不超过
+ *    minLimit 时的若干个样本的最小值，再恢复原来的上限；不能直接用有负载时的下一个样本作为无负载的响应时间，否则持续过载时
+ *    参照值被抬高，估算的排队数偏小，上限会越调越大。
+ * 超过上限的请求立即失败，而不是排队等待。
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * 每隔多少个样本重新探测一次无负载的响应时间
+     */
+    private static final int PROBE_INTERVAL = 1000;
+
+    /**
+     * 探测无负载的响应时间时采集的样本数
+     */
+    private static final int PROBE_SAMPLES = 10;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+
+    /**
+     * 外部（如集群总上限按节点分摊）设置的上限，不超过 maxLimit
+     */
+    private volatile int ceiling;
+
+    private volatile int limit;
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    /**
+     * 无负载时的响应时间，纳秒，0 表示还没有样本
+     */
+    private long rttNoLoad;
+    private int samples;
+
+    /**
+     * 探测中还需要的样本数，0 表示没有在探测；探测到的最小响应时间；探测前的上限
+     */
+    private int probeRemaining;
+    private long probeMin;
+    private int limitBeforeProbe;
+
+    /**
+     * 被拒绝的请求数。过载时所有被拒绝的线程都会累加，用 LongAdder 分散竞争，不会在拒绝路径上再争抢同一个缓存行
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.ceiling = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+    }
+
+    /**
+     * 尝试进入，成功后必须调用一次 {@link #release(long, boolean)}
+     *
+     * @return 是否进入，超过上限返回 false
+     */
+    public boolean tryAcquire() {
+        int current;
+        do {
+            current = inflight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+        } while (!inflight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * 请求结束，根据响应时间调整上限
+     *
+     * @param rttNanos 响应时间，纳秒
+     * @param dropped  是否失败（超时、异常），按丢包处理
+     */
+    public void release(long rttNanos, boolean dropped) {
+        int inflightAtEnd = inflight.getAndDecrement();
+        onSample(rttNanos, inflightAtEnd, dropped);
+    }
+
+    private synchronized void onSample(long rtt, int inflightAtEnd, boolean dropped) {
+
+        if (probeRemaining > 0) {
+            probe(rtt, inflightAtEnd, dropped);
+            return;
+        }
+        if (++samples % PROBE_INTERVAL == 0 && rttNoLoad != 0) {
+            limitBeforeProbe = limit;
+            probeRemaining = PROBE_SAMPLES;
+            probeMin = Long.MAX_VALUE;
+            limit = minLimit;
+            return;
+        }
+        if (rttNoLoad == 0 || rtt < rttNoLoad) {
+            rttNoLoad = rtt;
+            return;
+        }
+
+        double current = limit;
+        double log = Math.max(1, Math.log10(current));
+        double next;
+        if (dropped) {
+            next = current - log;
+        } else {
+            // 并发数远低于上限时，响应时间反映不了上限是否合适，不调整
+            if (inflightAtEnd * 2 < current) {
+                return;
+            }
+            double queue = Math.ceil(current * (1 - (double) rttNoLoad / rtt));
+            if (queue < 3 * log) {
+                next = current + log;
+            } else if (queue > 6 * log) {
+                next = current - log;
+            } else {
+                return;
+            }
+        }
+        limit = (int) Math.max(minLimit, Math.min(next, ceiling));
+    }
+
+    /**
+     * 探测期间的样本：降低上限之前进入的请求结束时并发仍然较高，不计入
+     */
+    private void probe(long rtt, int inflightAtEnd, boolean dropped) {
+        if (inflightAtEnd > minLimit) {
+            return;
+        }
+        if (!dropped) {
+            probeMin = Math.min(probeMin, rtt);
+        }
+        if (--probeRemaining == 0) {
+            if (probeMin != Long.MAX_VALUE) {
+                rttNoLoad = probeMin;
+            }
+            limit = Math.min(limitBeforeProbe, ceiling);
+        }
+    }
+
+    /**
+     * 设置外部上限，如集群总上限按节点分摊后的值
+     */
+    public void setCeiling(int ceiling) {
+        this.ceiling = Math.max(minLimit, Math.min(ceiling, maxLimit));
+        if (limit > this.ceiling) {
+            limit = this.ceiling;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 当前的并发上限
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public int getCeiling() {
+        return ceiling;
+    }
+
+    /**
+     * 无负载时的响应时间，微秒
+     */
+    public synchronized long getRttNoLoadMicros() {
+        return rttNoLoad / 1000;
+    }
+
+    /**
+     * 被拒绝的请求数
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
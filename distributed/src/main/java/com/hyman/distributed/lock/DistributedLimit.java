@@ -1,20 +1,46 @@
 package com.hyman.distributed.lock;
 
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 分布式限流，使用 lua
+ *
+ * 滑动窗口计数：窗口被分成若干个子窗口，每个子窗口一个计数，保存在同一个 hash 中。每次请求统计最近一个窗口内所有子窗口的
+ * 计数之和，不超过限制才放行，并清理已经滑出窗口的子窗口。
+ * 相比固定窗口（每次请求重置过期时间，持续有请求时计数永远不清零；并且在两个窗口交界处最多放行 2 倍的请求），任意一段窗口
+ * 长度的时间内放行的请求数都不会超过限制。
+ *
+ * 令牌桶限流（GCRA）：按固定速率产生令牌，最多积攒 burst 个，允许一定的突发；每次请求可以消耗多个令牌。每个限流器只有一个
+ * key（理论到达时间），不管速率多大都是一次网络往返，适合按用户等维度的海量限流器。同一次调用返回剩余令牌数和重试等待时间。
+ *
+ * redis 不可用时不再拒绝所有请求，而是熔断并降级为本地令牌桶（见 LimitFallback）。
  */
 @Slf4j
 @Component
 public class DistributedLimit {
 
+    /**
+     * 子窗口数，越多越接近精确的滑动窗口，hash 也越大
+     */
+    static final int SUB_WINDOWS = 10;
+
+    /**
+     * 降级的令牌桶限流在被限流时返回的结果，不用每次创建。本地令牌桶只是近似，剩余令牌数固定为 0，
+     * HybridLimiter 也就不会在降级期间按剩余令牌数再租一次
+     */
+    private static final RateLimitResult FALLBACK_REJECTED = new RateLimitResult(false, 0, -1, 0);
+
     /**
      * 注意RedisTemplate用的String,String，后续所有用到的key和value都是String的
      */
@@ -22,26 +48,404 @@ public class DistributedLimit {
     private RedisTemplate<String, String> redisTemplate;
 
     @Autowired
-    RedisScript<Long> limitScript;
+    private RedisScriptRegistry scriptRegistry;
+
+    /**
+     * redis 不可用时降级为本地限流
+     */
+    @Autowired
+    private LimitFallback fallback;
 
+    /**
+     * 是否遇到过 checkAll 的 key 不在同一个槽（redis 集群），之后不在同一个槽的 key 直接逐个检查
+     */
+    private volatile boolean crossSlot;
+
+    /**
+     * 10 秒内最多 limit 次
+     */
     public Boolean distributedLimit(String key, String limit) {
+        return distributedLimit(key, Long.parseLong(limit), 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 滑动窗口限流
+     *
+     * @param key    限流的key
+     * @param limit  窗口内允许的请求数
+     * @param window 窗口大小
+     * @param unit   窗口大小的单位
+     * @return 是否放行
+     */
+    public Boolean distributedLimit(String key, long limit, long window, TimeUnit unit) {
+        return distributedLimit(prepareLimit(key, limit, window, unit));
+    }
+
+    /**
+     * 预先准备好参数的滑动窗口限流器，参数固定时（如注解上的常量 key）只需要准备一次
+     */
+    public PreparedLimit prepareLimit(String key, long limit, long window, TimeUnit unit) {
+        long windowMillis = unit.toMillis(window);
+        return new PreparedLimit("limit", "limit:{" + key + "}", limit, limit, windowMillis, 1, windowMillis,
+                limit, windowMillis, SUB_WINDOWS);
+    }
+
+    public Boolean distributedLimit(PreparedLimit prepared) {
+
+        if (!fallback.useRedis()) {
+            return fallbackTake(prepared);
+        }
 
         Long id = 0L;
 
         try {
-            id = redisTemplate.execute(limitScript, Collections.singletonList(key), limit);
-            log.info("id:{}", id);
+            id = scriptRegistry.execute(prepared.script, Long.class, 1, prepared.keysAndArgs());
+            fallback.onSuccess();
+            log.debug("id:{}", id);
 
         } catch (Exception e) {
             log.error("error", e);
+            fallback.onFailure();
+            return fallbackTake(prepared);
         }
 
-        if(id == 0L) {
+        if(id == null || id == 0L) {
             return false;
         } else {
             return true;
         }
     }
 
+    /**
+     * 多个滑动窗口限流器一次检查（如按用户限流的同时还有全局限流），见 {@link #checkAll(List)}
+     *
+     * @param keys   限流的key
+     * @param limits 每个 key 窗口内允许的请求数，与 keys 一一对应
+     * @return 是否全部放行
+     */
+    public Boolean distributedLimitAll(List<String> keys, List<Long> limits, long window, TimeUnit unit) {
+
+        List<LimitSpec> specs = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            specs.add(LimitSpec.of(keys.get(i), limits.get(i), window, unit));
+        }
+        return checkAll(specs);
+    }
+
+    /**
+     * 多个滑动窗口限流器（如用户、租户、接口、全局）一次检查，一个 lua 脚本、一次网络往返，而不是每个限流器一次。
+     * 全部通过才计数，有一个被限流则都不计数，不会出现前面的限流器已经计数、后面的限流器拒绝的情况。
+     * 每个限流器可以有不同的限制和窗口大小。
+     *
+     * redis 集群下一个脚本的所有 key 必须在同一个槽，而限流 key 的 hash tag 为整个 key，多个限流器通常不在同一个槽。
+     * 第一次遇到 CROSSSLOT 后，不在同一个槽的 key 改为逐个检查：依次计数，有一个被限流则把前面已经计数的减回去。
+     * 逐个检查不是原子的，并发时可能有请求因为另一个请求暂时多计的数被限流；CROSSSLOT 是用法问题，不算 redis 故障，不触发熔断。
+     *
+     * @param specs 要检查的限流器
+     * @return 是否全部放行
+     */
+    public Boolean checkAll(List<LimitSpec> specs) {
+
+        if (!fallback.useRedis()) {
+            return fallbackTakeAll(specs);
+        }
+
+        Long rejected = -1L;
+
+        try {
+            rejected = limitAll(specs, System.currentTimeMillis());
+            fallback.onSuccess();
+            if (rejected != null && rejected > 0) {
+                log.debug("rejected by:{}", specs.get(rejected.intValue() - 1));
+            }
+
+        } catch (Exception e) {
+            log.error("error", e);
+            fallback.onFailure();
+            return fallbackTakeAll(specs);
+        }
+
+        return rejected != null && rejected == 0L;
+    }
+
+    /**
+     * 全部通过返回 0，否则返回第一个被限流的限流器的序号（从 1 开始）
+     */
+    private Long limitAll(List<LimitSpec> specs, long now) {
+
+        List<String> keys = new ArrayList<>(specs.size());
+        for (LimitSpec spec : specs) {
+            keys.add(spec.getRedisKey());
+        }
+        if (!crossSlot || sameSlot(keys)) {
+            Object[] args = new Object[specs.size() * 2 + 2];
+            args[0] = SUB_WINDOWS;
+            args[1] = now;
+            for (int i = 0; i < specs.size(); i++) {
+                args[i * 2 + 2] = specs.get(i).getLimit();
+                args[i * 2 + 3] = specs.get(i).getWindowMillis();
+            }
+            try {
+                return scriptRegistry.execute("limitAll", Long.class, keys, args);
+            } catch (RuntimeException e) {
+                if (!isCrossSlot(e)) {
+                    throw e;
+                }
+                crossSlot = true;
+                log.warn("checkAll 的 key 不在同一个槽，改为逐个检查：{}", keys);
+            }
+        }
+        return limitEach(specs, now);
+    }
+
+    /**
+     * 逐个检查，有一个被限流则把前面已经计数的减回去。计数和减回使用同一个时间戳，落在同一个子窗口
+     */
+    private Long limitEach(List<LimitSpec> specs, long now) {
+        for (int i = 0; i < specs.size(); i++) {
+            LimitSpec spec = specs.get(i);
+            Long count = scriptRegistry.execute("limit", Long.class, Collections.singletonList(spec.getRedisKey()),
+                    spec.getLimit(), spec.getWindowMillis(), SUB_WINDOWS, now);
+            if (count == null || count == 0L) {
+                for (int j = i - 1; j >= 0; j--) {
+                    LimitSpec counted = specs.get(j);
+                    scriptRegistry.execute("limitRecord", Long.class, Collections.singletonList(counted.getRedisKey()),
+                            -1, counted.getWindowMillis(), SUB_WINDOWS, now);
+                }
+                return (long) (i + 1);
+            }
+        }
+        return 0L;
+    }
+
+    private static boolean sameSlot(List<String> keys) {
+        byte[][] raw = new byte[keys.size()][];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return ClusterSlotHashUtil.isSameSlotForAllKeys(raw);
+    }
+
+    /**
+     * 服务端返回的 CROSSSLOT 错误，或者 jedis 集群客户端在发送前发现 key 不在同一个槽
+     */
+    private static boolean isCrossSlot(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            String message = t.getMessage();
+            if (message != null && (message.contains("CROSSSLOT") || message.contains("different slots"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 令牌桶限流（GCRA）
+     *
+     * @param key    限流的key
+     * @param rate   每个周期产生的令牌数
+     * @param period 周期
+     * @param unit   周期的单位
+     * @param burst  突发容量，最多积攒的令牌数，即空闲之后一次最多放行多少
+     * @param cost   本次消耗的令牌数，必须大于 0
+     * @return 限流结果，redis 不可用时使用本地令牌桶
+     */
+    public RateLimitResult rateLimit(String key, long rate, long period, TimeUnit unit, long burst, long cost) {
+        return rateLimit(prepareRateLimit(key, rate, period, unit, burst, cost));
+    }
+
+    /**
+     * 预先准备好参数的令牌桶限流器，参数固定时只需要准备一次
+     */
+    public PreparedLimit prepareRateLimit(String key, long rate, long period, TimeUnit unit, long burst, long cost) {
+        if (rate <= 0 || period <= 0) {
+            throw new IllegalArgumentException("令牌产生速率必须大于 0：" + rate + "/" + period + " " + unit);
+        }
+        if (cost <= 0) {
+            throw new IllegalArgumentException("消耗的令牌数必须大于 0：" + cost);
+        }
+        long periodMillis = unit.toMillis(period);
+        return new PreparedLimit("gcra", "gcra:{" + key + "}", burst, rate, periodMillis, cost, 0,
+                rate, periodMillis, burst, cost);
+    }
+
+    public RateLimitResult rateLimit(PreparedLimit prepared) {
+
+        if (!fallback.useRedis()) {
+            return fallbackRateLimit(prepared);
+        }
+
+        try {
+            List<?> result = scriptRegistry.execute(prepared.script, List.class, 1, prepared.keysAndArgs());
+            fallback.onSuccess();
+            return new RateLimitResult(Long.valueOf(1L).equals(result.get(0)), (Long) result.get(1),
+                    (Long) result.get(2), (Long) result.get(3));
+
+        } catch (Exception e) {
+            log.error("error", e);
+            fallback.onFailure();
+        }
+        return fallbackRateLimit(prepared);
+    }
+
+    /**
+     * 把没有用完的令牌归还给令牌桶，桶满时多余的令牌丢弃
+     */
+    public void refund(String key, long rate, long period, TimeUnit unit, long tokens) {
+        // 降级期间令牌来自本地令牌桶，不需要归还
+        if (fallback.isOpen()) {
+            return;
+        }
+        try {
+            scriptRegistry.execute("gcraRefund", Long.class, Collections.singletonList("gcra:{" + key + "}"),
+                    rate, unit.toMillis(period), tokens, System.currentTimeMillis());
+        } catch (Exception e) {
+            // 归还失败只是少放行了一些请求
+            log.error("error", e);
+            fallback.onFailure();
+        }
+    }
+
+    /**
+     * redis 不可用时使用本地令牌桶
+     */
+    private Boolean fallbackTake(PreparedLimit prepared) {
+        return fallback.bucket(prepared.key, prepared.capacity, prepared.rate, prepared.periodMillis, prepared.window)
+                .tryTake(prepared.cost);
+    }
+
+    private Boolean fallbackTakeAll(List<LimitSpec> specs) {
+        for (int i = 0; i < specs.size(); i++) {
+            if (!fallbackBucket(specs.get(i)).tryTake(1)) {
+                // 有一个被限流则都不计数，归还已经取到的令牌
+                for (int j = 0; j < i; j++) {
+                    fallbackBucket(specs.get(j)).giveBack(1);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private LimitFallback.LocalBucket fallbackBucket(LimitSpec spec) {
+        return fallback.bucket(spec.getRedisKey(), spec.getLimit(), spec.getLimit(), spec.getWindowMillis(),
+                spec.getWindowMillis());
+    }
+
+    private RateLimitResult fallbackRateLimit(PreparedLimit prepared) {
+        LimitFallback.LocalBucket bucket = fallback.bucket(prepared.key, prepared.capacity, prepared.rate,
+                prepared.periodMillis, prepared.window);
+        if (bucket.tryTake(prepared.cost)) {
+            return new RateLimitResult(true, bucket.available(), 0, 0);
+        }
+        return FALLBACK_REJECTED;
+    }
+
+    /**
+     * 自适应并发限流的集群总上限分摊：上报本节点当前的并发上限，返回本节点允许的上限
+     *
+     * @param name         限流器的名字
+     * @param nodeId       节点标识
+     * @param localLimit   本节点当前的并发上限
+     * @param clusterLimit 集群的总并发上限
+     * @param ttlMillis    上报的有效期，超过有效期没有再次上报的节点视为下线，不再参与分摊
+     * @return 本节点允许的上限，redis 异常时返回 -1
+     */
+    public long shareLimit(String name, String nodeId, long localLimit, long clusterLimit, long ttlMillis) {
+        try {
+            return scriptRegistry.execute("adaptiveShare", Long.class, Collections.singletonList("adaptive:{" + name + "}"),
+                    nodeId, localLimit, clusterLimit, ttlMillis, System.currentTimeMillis());
+        } catch (Exception e) {
+            log.error("error", e);
+        }
+        return -1;
+    }
+
+    /**
+     * 预先序列化好 key 和参数的限流器，每次调用只需要填入当前时间（脚本的最后一个参数）
+     */
+    public static final class PreparedLimit {
+
+        private final String script;
+
+        /**
+         * key、固定的参数，最后一个位置留给当前时间
+         */
+        private final byte[][] template;
+
+        /**
+         * redis 不可用时本地令牌桶的参数：key、容量、每个周期的令牌数、周期（毫秒）、每次消耗的令牌数、对账的窗口（毫秒）
+         */
+        private final String key;
+        private final long capacity;
+        private final long rate;
+        private final long periodMillis;
+        private final long cost;
+        private final long window;
+
+        PreparedLimit(String script, String key, long capacity, long rate, long periodMillis, long cost, long window,
+                      Object... args) {
+            this.script = script;
+            this.key = key;
+            this.capacity = capacity;
+            this.rate = rate;
+            this.periodMillis = periodMillis;
+            this.cost = cost;
+            this.window = window;
+            this.template = new byte[args.length + 2][];
+            this.template[0] = key.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < args.length; i++) {
+                this.template[i + 1] = String.valueOf(args[i]).getBytes(StandardCharsets.UTF_8);
+            }
+        }
 
+        private byte[][] keysAndArgs() {
+            byte[][] keysAndArgs = template.clone();
+            keysAndArgs[keysAndArgs.length - 1] = Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+            return keysAndArgs;
+        }
+    }
+
+    /**
+     * 令牌桶限流的结果
+     */
+    public static final class RateLimitResult {
+
+        private final boolean allowed;
+        private final long remaining;
+        private final long retryAfterMillis;
+        private final long resetAfterMillis;
+
+        RateLimitResult(boolean allowed, long remaining, long retryAfterMillis, long resetAfterMillis) {
+            this.allowed = allowed;
+            this.remaining = remaining;
+            this.retryAfterMillis = retryAfterMillis;
+            this.resetAfterMillis = resetAfterMillis;
+        }
+
+        public boolean isAllowed() {
+            return allowed;
+        }
+
+        /**
+         * 剩余的令牌数
+         */
+        public long getRemaining() {
+            return remaining;
+        }
+
+        /**
+         * 多久之后重试才可能放行，毫秒；放行时为 0，消耗的令牌数超过突发容量（永远不可能放行）或者结果未知时为 -1
+         */
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+
+        /**
+         * 多久之后令牌全部恢复，毫秒
+         */
+        public long getResetAfterMillis() {
+            return resetAfterMillis;
+        }
+    }
 }
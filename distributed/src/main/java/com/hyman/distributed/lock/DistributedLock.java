@@ -1,6 +1,7 @@
 package com.hyman.distributed.lock;
 
 import com.hyman.distributed.lock.lockconf.ThreadUtils;
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
@@ -8,11 +9,16 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
 import redis.clients.jedis.params.SetParams;
 
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
  * 分布式锁的简单实现代码
@@ -28,111 +34,309 @@ public class DistributedLock {
 
     private final JedisPool jedisPool;
 
+    private final RedisScriptRegistry scriptRegistry;
+
+    /**
+     * 释放锁时发布消息的频道前缀，频道名为 lock:release:<锁的key>
+     */
+    private static final String RELEASE_CHANNEL_PREFIX = "lock:release:";
+
+    /**
+     * 释放通知可能丢失（订阅连接断开，或者不同节点之间的时序），所以等待者最多阻塞这么久就重新尝试一次，作为兜底轮询
+     */
+    private static final long FALLBACK_POLL_MILLIS = 100;
+
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 1000;
+
+    /**
+     * 本 JVM 内等待各个锁的线程
+     */
+    private final LockSignals releaseSignals = new LockSignals();
+
+    /**
+     * 锁的 key -> 本 JVM 内持有该可重入锁的线程及重入次数。锁是互斥的，同一时刻只有持有线程会修改对应的记录
+     */
+    private final ConcurrentHashMap<String, ReentrantHold> reentrantHolds = new ConcurrentHashMap<>();
+
+    private final Object subscriberMonitor = new Object();
+    private volatile ReleaseSubscriber subscriber;
+
     public DistributedLock(JedisPool jedisPool) {
+        this(jedisPool, new RedisScriptRegistry(RedisScriptRegistry.DEFAULT_LOCATION));
+    }
+
+    @Autowired
+    public DistributedLock(JedisPool jedisPool, RedisScriptRegistry scriptRegistry) {
         this.jedisPool = jedisPool;
+        this.scriptRegistry = scriptRegistry;
     }
 
     /**
      * 加锁：
      * 使用 redis 的 setNx 命令获取锁，保证设置值和失效时间是在同一条命令中执行。如果设置成功，则获取到锁，否则，视为获取不到锁。
+     * 该方法不可重入，同一线程嵌套加同一把锁请使用 {@link #lockReentrant(String, long, long)}。
      *
      * @param lockName       锁的key
      * @param acquireTimeout 获取超时时间，毫秒
      * @param timeout        锁的超时时间，毫秒
-     * @return 锁标识
+     * @return 锁标识，获取失败返回 null
      */
     public String lockWithTimeout(String lockName, long acquireTimeout, long timeout) {
 
-        Jedis jedis = null;
-        String retIdentifier = null;
+        // 锁名，即key值
+        String lockKey = "lock:" + lockName;
+        // 随机生成一个value，作为锁的值
+        String identifier = UUID.randomUUID().toString();
 
-        /**
-         * 分布式锁（基于 redis），可重入性：
-         * 锁必须保证其可重入性，即一个方法获取了一个标识为 identifier 的锁，此时这个方法调用了另外一个方法，也需要 identifier的锁，
-         * 此时由于当前线程已经有了这个锁，则不再获取直接进去，否则则会造成死锁。
-         *
-         * 可重入，并且此时已经获取到了一个相同的锁，则不再需要获取锁
-         */
-        if (ThreadUtils.getlockKey(lockName) != null) {
-            if (log.isTraceEnabled()) {
-                log.trace("[全局锁]当前已经获取到锁:" + lockName);
+        if (awaitLock(lockKey, acquireTimeout, () -> trySetLock(lockKey, identifier, timeout))) {
+            // 返回value值，用于释放锁时间确认
+            return identifier;
+        }
+        return null;
+    }
+
+    /**
+     * 可重入加锁：
+     * 锁必须保证其可重入性，即一个方法获取了锁，此时这个方法调用了另外一个方法，也需要同一把锁，此时由于当前线程已经有了这个锁，
+     * 则不再获取直接进去，否则则会造成死锁。
+     *
+     * redis 中使用 hash 保存锁，field 为持有者标识（JVM 标识 + 线程 id），value 为重入次数，由 lua 脚本原子地判断和累加。
+     * 同时本地缓存了当前线程持有的锁，在租约有效期内的嵌套加锁只累加本地计数，不访问 redis。
+     *
+     * @param lockName       锁的key
+     * @param acquireTimeout 获取超时时间，毫秒
+     * @param timeout        锁的超时时间，毫秒
+     * @return 是否获取到锁
+     */
+    public boolean lockReentrant(String lockName, long acquireTimeout, long timeout) {
+
+        String lockKey = "rlock:" + lockName;
+        long threadId = Thread.currentThread().getId();
+
+        ReentrantHold hold = reentrantHolds.get(lockKey);
+        if (hold != null && hold.threadId == threadId) {
+            if (System.currentTimeMillis() < hold.leaseDeadline) {
+                hold.localCount++;
+                if (log.isTraceEnabled()) {
+                    log.trace("[全局锁]当前已经获取到锁:" + lockName + "，重入次数:" + hold.localCount);
+                }
+                return true;
             }
-            return "OK";
+            // 本地记录的租约已经过期，需要到 redis 确认锁是否还是自己的，脚本会累加 redis 中的重入次数并续期
+            long deadline = System.currentTimeMillis() + timeout;
+            if (awaitLock(lockKey, acquireTimeout, () -> tryAcquireReentrant(lockKey, hold.owner, timeout))) {
+                hold.redisCount++;
+                hold.localCount++;
+                hold.leaseDeadline = deadline;
+                return true;
+            }
+            return false;
         }
 
+        String owner = ThreadUtils.ownerId();
+        long deadline = System.currentTimeMillis() + timeout;
+        if (awaitLock(lockKey, acquireTimeout, () -> tryAcquireReentrant(lockKey, owner, timeout))) {
+            reentrantHolds.put(lockKey, new ReentrantHold(threadId, owner, deadline));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 可重入解锁，重入次数减到 0 时才真正删除 redis 中的锁，并通知等待者。
+     *
+     * @param lockName 锁的key
+     * @return 当前线程是否持有该锁
+     */
+    public boolean releaseReentrant(String lockName) {
+
+        String lockKey = "rlock:" + lockName;
+        ReentrantHold hold = reentrantHolds.get(lockKey);
+        if (hold == null || hold.threadId != Thread.currentThread().getId()) {
+            log.error("锁释放失败，当前线程未持有锁" + lockKey);
+            return false;
+        }
+        if (--hold.localCount > 0) {
+            return true;
+        }
+        reentrantHolds.remove(lockKey);
+
+        Object result;
+        try (Jedis jedis = jedisPool.getResource()) {
+            result = scriptRegistry.execute(jedis, "reentrantUnlock", Collections.singletonList(lockKey),
+                    Arrays.asList(hold.owner, String.valueOf(hold.redisCount), RELEASE_CHANNEL_PREFIX + lockKey));
+        }
+        // 脚本返回剩余的重入次数，-1 表示锁已经不是自己的（过期后被他人获取）
+        if (!Long.valueOf(0L).equals(result)) {
+            log.error("锁释放失败" + lockKey + "，result:" + result);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 先尝试一次，失败则登记为该锁的等待者，阻塞在本地的信号上，直到收到该锁的释放通知或兜底轮询时间到，再重新尝试。
+     * 等待期间不占用 jedis 连接，每次尝试都是从连接池借出后立即归还。
+     */
+    private boolean awaitLock(String lockKey, long acquireTimeout, BooleanSupplier attempt) {
+
+        // 获取锁的超时时间，超过这个时间则放弃获取锁
+        long end = System.currentTimeMillis() + acquireTimeout;
         try {
-            // 获取连接
-            jedis = jedisPool.getResource();
-            // 锁名，即key值
-            String lockKey = "lock:" + lockName;
-            // 随机生成一个value，作为锁的值
-            String identifier = UUID.randomUUID().toString();
-            // 超时时间，上锁后超过此时间则自动释放锁
-            int lockExpire = (int) (timeout / 1000);
-
-            // 获取锁的超时时间，超过这个时间则放弃获取锁
-            long end = System.currentTimeMillis() + acquireTimeout;
-            while (System.currentTimeMillis() < end) {
+            // 没有竞争时只有这一次尝试，不涉及订阅
+            if (attempt.getAsBoolean()) {
+                return true;
+            }
+            ensureSubscriber();
+            return releaseSignals.await(lockKey, end, FALLBACK_POLL_MILLIS, attempt);
 
-                /**
-                 * 第三个参数：
-                 * nx ： not exists, 只有key 不存在时才把key value set 到redis
-                 * xx ： is exists ，只有 key 存在是，才把key value set 到redis
-                 *
-                 * 第四个参数：
-                 * ex ： seconds 秒
-                 * px :   milliseconds 毫秒
-                 * 使用其他值，抛出 异常 ： redis.clients.jedis.exceptions.JedisDataException : ERR syntax error
-                 */
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("获取锁异常" + lockKey, e);
+        }
+        return false;
+    }
 
-                // 这个是 jedis 2.9.3 版本（旧版本）使用的方法。当前版本是 3.1.0
-                //jedis.set("key","value","nx","ex",100);
+    private boolean tryAcquireReentrant(String lockKey, String owner, long timeout) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            Object count = scriptRegistry.execute(jedis, "reentrantLock", Collections.singletonList(lockKey),
+                    Arrays.asList(owner, String.valueOf(timeout)));
+            return count instanceof Long && (Long) count > 0;
+        }
+    }
 
-                /**
-                 * value需要使用一个唯一的值，这个值在解锁的时候需要判断是否一致，如果一致的话就进行解锁。这个也是官方推荐的方法。
-                 */
-                SetParams setParams = new SetParams();
-                setParams.nx();
-                setParams.ex(lockExpire);
-                String result = jedis.set(lockKey, identifier, setParams);
-
-                if ("OK".equals(result)) {
-                    // 返回value值，用于释放锁时间确认
-                    retIdentifier = identifier;
-                    return retIdentifier;
-                }
+    /**
+     * 尝试一次加锁，连接用完立即归还连接池。
+     */
+    private boolean trySetLock(String lockKey, String identifier, long timeout) {
 
-                // 如果获取锁失败则就阻塞等待一会
-                synchronized (Thread.currentThread()) {
-                    Thread.currentThread().wait(1000);
-                }
+        try (Jedis jedis = jedisPool.getResource()) {
+
+            /**
+             * 第三个参数：
+             * nx ： not exists, 只有key 不存在时才把key value set 到redis
+             * xx ： is exists ，只有 key 存在是，才把key value set 到redis
+             *
+             * 第四个参数：
+             * ex ： seconds 秒
+             * px :   milliseconds 毫秒
+             * 使用其他值，抛出 异常 ： redis.clients.jedis.exceptions.JedisDataException : ERR syntax error
+             */
+
+            // 这个是 jedis 2.9.3 版本（旧版本）使用的方法。当前版本是 3.1.0
+            //jedis.set("key","value","nx","ex",100);
+
+            /**
+             * value需要使用一个唯一的值，这个值在解锁的时候需要判断是否一致，如果一致的话就进行解锁。这个也是官方推荐的方法。
+             * 超时时间直接使用毫秒（px），避免小于 1 秒的超时时间被截断为 0。
+             */
+            SetParams setParams = new SetParams();
+            setParams.nx();
+            setParams.px(timeout);
+            return "OK".equals(jedis.set(lockKey, identifier, setParams));
+
+            // 另一种设置分布式锁的方法
+            //if (jedis.setnx(lockKey, identifier) == 1) {
+            //    jedis.expire(lockKey, lockExpire);
+            //    return true;
+            //}
+            //// 返回-1代表key没有设置超时时间，为key设置一个超时时间
+            //if (jedis.ttl(lockKey) == -1) {
+            //    jedis.expire(lockKey, lockExpire);
+            //}
+        }
+    }
 
-                // 另一种设置分布式锁的方法
-                //if (jedis.setnx(lockKey, identifier) == 1) {
-                //    jedis.expire(lockKey, lockExpire);
-                //    // 返回value值，用于释放锁时间确认
-                //    retIdentifier = identifier;
-                //    return retIdentifier;
-                //}
-                //// 返回-1代表key没有设置超时时间，为key设置一个超时时间
-                //if (jedis.ttl(lockKey) == -1) {
-                //    jedis.expire(lockKey, lockExpire);
-                //}
-
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+    /**
+     * 订阅线程只在第一次出现锁竞争时启动，整个 JVM 的所有等待者共用这一个订阅连接。
+     */
+    private void ensureSubscriber() {
+        if (subscriber != null) {
+            return;
+        }
+        synchronized (subscriberMonitor) {
+            if (subscriber == null) {
+                ReleaseSubscriber releaseSubscriber = new ReleaseSubscriber();
+                Thread thread = new Thread(releaseSubscriber, "redis-lock-release-subscriber");
+                thread.setDaemon(true);
+                thread.start();
+                subscriber = releaseSubscriber;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (subscriberMonitor) {
+            if (subscriber != null) {
+                subscriber.shutdown();
+                subscriber = null;
+            }
+        }
+    }
+
+    /**
+     * 本 JVM 内某个线程持有的可重入锁。localCount 为本地重入次数，redisCount 为 redis hash 中记录的本 JVM 的重入次数，
+     * 只有本地租约过期后的重入才会访问 redis，所以 redisCount 通常为 1
+     */
+    private static final class ReentrantHold {
+
+        private final long threadId;
+        private final String owner;
+        private int localCount = 1;
+        private int redisCount = 1;
+        private long leaseDeadline;
+
+        ReentrantHold(long threadId, String owner, long leaseDeadline) {
+            this.threadId = threadId;
+            this.owner = owner;
+            this.leaseDeadline = leaseDeadline;
+        }
+    }
+
+    /**
+     * 共享的订阅连接，使用 psubscribe 订阅所有锁的释放频道，收到消息后只唤醒对应锁名的等待者。
+     * 该连接会一直占用连接池中的一个 jedis 实例。
+     */
+    private final class ReleaseSubscriber extends JedisPubSub implements Runnable {
+
+        private volatile boolean running = true;
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message) {
+            releaseSignals.signal(channel.substring(RELEASE_CHANNEL_PREFIX.length()));
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try (Jedis jedis = jedisPool.getResource()) {
+                    // 阻塞，直到取消订阅或者连接断开
+                    jedis.psubscribe(this, RELEASE_CHANNEL_PREFIX + "*");
+                } catch (Exception e) {
+                    if (!running) {
+                        break;
+                    }
+                    log.warn("锁释放通知的订阅连接断开，{}ms 后重连", RESUBSCRIBE_DELAY_MILLIS, e);
+                    // 断开期间的通知已经丢失，唤醒所有等待者重新抢一次锁
+                    releaseSignals.signalAll();
+                    try {
+                        Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (jedis != null) {
-                jedis.close();
+        }
+
+        void shutdown() {
+            running = false;
+            if (isSubscribed()) {
+                punsubscribe();
             }
         }
-        return retIdentifier;
     }
 
     /**
@@ -145,13 +349,15 @@ public class DistributedLock {
      * @return
      */
     public boolean releaseLock(String lockName, String identifier) {
-        Jedis jedis = null;
         String lockKey = "lock:" + lockName;
 
-        String script = "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
-        Object result = jedis.eval(script, Collections.singletonList(lockKey), Collections.singletonList(identifier));
-        // del 方法的返回值，是被删除 key 的数量
-        if (!"1".equals(result)) {
+        Object result;
+        try (Jedis jedis = jedisPool.getResource()) {
+            result = scriptRegistry.execute(jedis, "unlockPublish", Collections.singletonList(lockKey),
+                    Arrays.asList(identifier, RELEASE_CHANNEL_PREFIX + lockKey));
+        }
+        // 脚本的返回值，是被删除 key 的数量
+        if (!Long.valueOf(1L).equals(result)) {
             log.error("锁释放失败" + lockKey);
             return false;
         }
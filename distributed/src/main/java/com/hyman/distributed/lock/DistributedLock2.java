@@ -1,12 +1,17 @@
 package com.hyman.distributed.lock;
 
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
 
 /**
  * 分布式锁，使用 lua
@@ -22,12 +27,70 @@ public class DistributedLock2 {
     private RedisTemplate<String, String> redisTemplate;
 
     /**
-     * redis lua 脚本封装类
+     * redis lua 脚本注册表，按脚本名通过 EVALSHA 调用
      */
     @Autowired
-    RedisScript<Boolean> lockScript;
+    private RedisScriptRegistry scriptRegistry;
+
     @Autowired
-    RedisScript<Long> unlockScript;
+    private LockWatchdog watchdog;
+
+    /**
+     * 加锁并由看门狗自动续期：锁的过期时间为看门狗的租约时间，持有期间会一直续期，直到解锁或者锁已经不属于自己。
+     * 持有者宕机后最多一个租约时间锁就会自动释放，而正常持有多久都不会过期，适合执行时间不确定的业务。
+     */
+    public Boolean distributedLock(String key, String uuid) {
+
+        Boolean locked = false;
+        try {
+            locked = lockWithWatchdog(key, uuid);
+
+        } catch (Exception e) {
+
+            log.error("error", e);
+        }
+        return locked;
+    }
+
+    /**
+     * 同 {@link #distributedLock(String, String)}，但 redis 异常时直接抛出，供需要区分"锁被占用"和"redis 不可用"的调用方使用
+     */
+    public boolean lockWithWatchdog(String key, String uuid) {
+
+        Boolean locked = scriptRegistry.execute("lock", Boolean.class, Collections.singletonList(key), uuid,
+                String.valueOf(watchdog.getLeaseMillis()));
+        if (Boolean.TRUE.equals(locked)) {
+            watchdog.watch(key, uuid);
+        }
+        log.info("distributedLock.key{}: - uuid:{}: - locked:{} - watchdog", key, uuid, locked);
+        return Boolean.TRUE.equals(locked);
+    }
+
+    /**
+     * 加锁并返回 fencing token，锁由看门狗自动续期。
+     * token 对同一个锁单调递增，写数据时带上 token（见 FenceGuard），锁过期后才写入的旧持有者 token 更小，写入会被拒绝。
+     * 有了这层保护，锁的租约可以设置得更短，持有者宕机后锁释放得更快。
+     *
+     * @return fencing token，加锁失败返回 0
+     */
+    public long fencedLock(String key, String uuid) {
+
+        long token = 0;
+        try {
+            Long result = scriptRegistry.execute("fencedLock", Long.class, Arrays.asList(key, fenceKey(key)), uuid,
+                    String.valueOf(watchdog.getLeaseMillis()));
+            if (result != null && result > 0) {
+                token = result;
+                watchdog.watch(key, uuid);
+            }
+            log.info("distributedLock.key{}: - uuid:{}: - token:{} - watchdog", key, uuid, token);
+
+        } catch (Exception e) {
+
+            log.error("error", e);
+        }
+        return token;
+    }
 
     public Boolean distributedLock(String key, String uuid, String secondsToLock) {
 
@@ -67,7 +130,7 @@ public class DistributedLock2 {
              *
              * String s =redisUtils.getRedisTemplate().getConnectionFactory().getClusterConnection().scriptLoad(redisSc
              */
-            locked =redisTemplate.execute(lockScript, Collections.singletonList(key), uuid, millSeconds);
+            locked = scriptRegistry.execute("lock", Boolean.class, Collections.singletonList(key), uuid, millSeconds);
 
             log.info("distributedLock.key{}: - uuid:{}: - timeToLock:{} - locked:{} - millSeconds:{}",
                     key, uuid, secondsToLock, locked, millSeconds);
@@ -79,9 +142,75 @@ public class DistributedLock2 {
         return locked;
     }
 
+    /**
+     * 一次获取多把锁，要么全部成功，要么一个都不加。
+     * 整个检查和加锁过程在一个 lua 脚本中原子执行，N 把锁只需要一次网络往返；并且不存在先拿到一部分、再等待另一部分的过程，
+     * 所以不同调用方即使以不同的顺序传入同样的 key 也不会死锁。
+     *
+     * 注意：redis 集群下一个脚本的所有 key 必须在同一个槽，可以使用 {@link #hashTagged(String, String...)} 生成 key。
+     *
+     * @param keys        所有的锁，会去重并排序
+     * @param uuid        锁标识
+     * @param millsToLock 锁的过期时间，毫秒
+     */
+    public Boolean lockAll(Collection<String> keys, String uuid, long millsToLock) {
+
+        Boolean locked = false;
+        try {
+            Long result = scriptRegistry.execute("lockAll", Long.class, new ArrayList<>(new TreeSet<>(keys)), uuid,
+                    String.valueOf(millsToLock));
+            locked = Long.valueOf(1L).equals(result);
+            log.info("distributedLock.keys{}: - uuid:{}: - locked:{} - millSeconds:{}", keys, uuid, locked, millsToLock);
+
+        } catch (Exception e) {
+
+            log.error("error", e);
+        }
+        return locked;
+    }
+
+    public void unlockAll(Collection<String> keys, String uuid) {
+
+        Long unlocked = scriptRegistry.execute("unlockAll", Long.class, new ArrayList<>(new TreeSet<>(keys)), uuid);
+        log.info("distributedLock.keys{}: - uuid:{}: - unlocked:{}", keys, uuid, unlocked);
+    }
+
+    /**
+     * 生成同一个 hash tag 的锁 key，如 hashTagged("order:1", "user", "customer") 得到 {order:1}:user、{order:1}:customer，
+     * redis 集群下这些 key 会落在同一个槽，可以在一个脚本中操作。
+     */
+    public static List<String> hashTagged(String tag, String... names) {
+        List<String> keys = new ArrayList<>(names.length);
+        for (String name : names) {
+            keys.add("{" + tag + "}:" + name);
+        }
+        return keys;
+    }
+
+    /**
+     * 锁的 token 计数器，与锁使用同一个 hash tag，redis 集群下在同一个槽。计数器不设置过期时间，锁释放后 token 也不会重新开始
+     */
+    private static String fenceKey(String key) {
+        return key.contains("{") ? key + ":fence" : "{" + key + "}:fence";
+    }
+
     public void distributedUnlock(String key, String uuid) {
 
-        Long unlocked = redisTemplate.execute(unlockScript, Collections.singletonList(key), uuid);
+        watchdog.unwatch(key, uuid);
+
+        Long unlocked = scriptRegistry.execute("unlock", Long.class, Collections.singletonList(key), uuid);
+        log.info("distributedLock.key{}: - uuid:{}: - unlocked:{}", key, uuid, unlocked);
+    }
+
+    /**
+     * 解锁并向 releaseChannel 发布释放消息，订阅了该频道的等待者收到后立即重试，不需要轮询
+     */
+    public void distributedUnlock(String key, String uuid, String releaseChannel) {
+
+        watchdog.unwatch(key, uuid);
+
+        Long unlocked = scriptRegistry.execute("unlockPublish", Long.class, Collections.singletonList(key), uuid,
+                releaseChannel);
         log.info("distributedLock.key{}: - uuid:{}: - unlocked:{}", key, uuid, unlocked);
     }
 
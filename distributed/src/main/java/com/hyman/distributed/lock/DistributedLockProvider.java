@@ -0,0 +1,81 @@
+package com.hyman.distributed.lock;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 分布式锁的统一抽象，有以下几种后端：
+ * 1，redisLockProvider：性能高，主从切换时极端情况下可能两个客户端同时持有锁，适合高并发、允许极少数重复的场景。
+ * 2，zkLockProvider：锁与会话绑定，一致性由 zookeeper 保证，但每次加锁都要写 zookeeper，适合并发量小但必须正确的场景，如定时任务。
+ * 3，localLockProvider：只在本 JVM 内互斥，用于单节点部署和测试。
+ * 直接注入 DistributedLockProvider 得到的是 RoutingLockProvider，按锁名的前缀选择后端（见 distributed.lock.provider 配置），
+ * 把某一类锁换到其他后端只需要改配置；也可以注入对应名字的 bean 固定使用某个后端。
+ *
+ * 所有的锁都不可重入，获取失败（超时、后端异常）返回 null。
+ */
+public interface DistributedLockProvider {
+
+    /**
+     * 获取互斥锁，持有期间自动续期（redis 由看门狗续期，zookeeper 锁随会话存在）
+     *
+     * @param name       锁名
+     * @param waitMillis 最长等待时间，毫秒
+     */
+    LockLease tryLock(String name, long waitMillis);
+
+    /**
+     * 获取互斥锁，不等待
+     */
+    default LockLease tryLock(String name) {
+        return tryLock(name, 0);
+    }
+
+    /**
+     * 获取互斥锁，最多持有 leaseMillis，到期没有释放的由本节点自动释放（本节点宕机时由后端自己的机制释放）。
+     * 用于持有者可能卡住、但锁不能一直被占用的场景，到期释放后业务可能还在执行，需要业务自己保证幂等。
+     *
+     * @param leaseMillis 最长持有时间，毫秒
+     */
+    default LockLease tryLock(String name, long waitMillis, long leaseMillis) {
+        LockLease lease = tryLock(name, waitMillis);
+        return lease == null ? null : LeaseSupport.expireAfter(lease, leaseMillis);
+    }
+
+    /**
+     * 异步获取互斥锁，等待不占用调用线程。默认实现在有上限的线程池中等待，等待时间从调用时开始计算
+     *
+     * @return 获取成功时完成为租约，获取失败时完成为 null；调用方取消 future 后才获取到的锁会立即释放；
+     * 等待的请求太多时异常完成（RejectedExecutionException）
+     */
+    default CompletableFuture<LockLease> lockAsync(String name, long waitMillis) {
+        return LeaseSupport.async(waitMillis, remaining -> tryLock(name, remaining));
+    }
+
+    /**
+     * 获取读锁，多个读者可以同时持有，与写锁互斥
+     *
+     * @param leaseMillis 租约时间，毫秒，redis 后端超过租约没有释放的读者会被清理；zookeeper 后端锁随会话存在，不使用
+     */
+    LockLease tryReadLock(String name, long waitMillis, long leaseMillis);
+
+    /**
+     * 获取写锁，与所有读锁、写锁互斥
+     *
+     * @param leaseMillis 租约时间，毫秒，含义同读锁
+     */
+    LockLease tryWriteLock(String name, long waitMillis, long leaseMillis);
+
+    /**
+     * 获取信号量许可
+     *
+     * @param limit       许可总数，同一个信号量的所有调用方需要使用相同的值
+     * @param permits     本次获取的许可数
+     * @param leaseMillis 租约时间，毫秒，redis 后端超过租约没有释放的许可会被回收；zookeeper 后端许可随会话存在，不使用
+     */
+    LockLease tryAcquire(String name, int limit, int permits, long waitMillis, long leaseMillis);
+
+    /**
+     * 本节点是否是 name 这一组的 leader，用于多个节点中只有一个执行的任务（如定时任务）。
+     * 第一次调用时加入选举，之后一直保持，不需要每次执行任务都去抢锁；leader 宕机后其他节点自动接替。
+     */
+    boolean isLeader(String name);
+}
@@ -0,0 +1,146 @@
+package com.hyman.distributed.lock;
+
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 分布式读写锁，使用 lua
+ *
+ * 读多写少的资源（如客户数这类计数）如果使用互斥锁，所有读请求都要排队。读写锁允许多个读者同时持有，写者独占：
+ * 1，读者保存在 zset 中，score 为每个读者自己的租约过期时间，读者宕机后租约到期自动清理，不会永久挡住写者。
+ * 2，写优先：写者获取不到锁时登记写意向，此后新的读者不能进入，当前的读者退出后写者即可获取，避免读多时写者饥饿。
+ * 3，所有状态变化都在 lua 脚本中原子完成；释放时通过发布订阅唤醒等待者，收不到通知时兜底轮询。
+ * 所有 key 使用 {锁名} 作为 hash tag，redis 集群下也在同一个槽。
+ */
+@Slf4j
+@Component
+public class DistributedReadWriteLock {
+
+    private static final String WAKE_CHANNEL_PREFIX = "rwlock:wake:";
+
+    /**
+     * 收不到唤醒通知时的兜底轮询间隔，毫秒
+     */
+    private static final long FALLBACK_POLL_MILLIS = 100;
+
+    /**
+     * 写意向的过期时间，等待中的写者每次重试都会续期，放弃或者宕机后自动过期，毫秒
+     */
+    private static final long WRITE_INTENT_MILLIS = 1000;
+
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    private final LockSignals signals = new LockSignals();
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this::onWake, new PatternTopic(WAKE_CHANNEL_PREFIX + "*"));
+    }
+
+    /**
+     * 获取读锁
+     *
+     * @param name        锁名
+     * @param waitMillis  最长等待时间，毫秒
+     * @param leaseMillis 读者的租约时间，毫秒
+     * @return 读者标识，用于解锁；超时返回 null
+     */
+    public String readLock(String name, long waitMillis, long leaseMillis) {
+
+        List<String> keys = keys(name);
+        String owner = UUID.randomUUID().toString();
+        String lease = String.valueOf(leaseMillis);
+
+        if (acquire(name, waitMillis, () -> execute("rwReadLock", keys, owner, lease,
+                String.valueOf(System.currentTimeMillis())))) {
+            return owner;
+        }
+        return null;
+    }
+
+    /**
+     * 获取写锁
+     *
+     * @param name        锁名
+     * @param waitMillis  最长等待时间，毫秒
+     * @param leaseMillis 写锁的过期时间，毫秒
+     * @return 写者标识，用于解锁；超时返回 null
+     */
+    public String writeLock(String name, long waitMillis, long leaseMillis) {
+
+        List<String> keys = keys(name);
+        String owner = UUID.randomUUID().toString();
+        String lease = String.valueOf(leaseMillis);
+        String intent = String.valueOf(WRITE_INTENT_MILLIS);
+
+        if (acquire(name, waitMillis, () -> execute("rwWriteLock", keys, owner, lease,
+                String.valueOf(System.currentTimeMillis()), intent))) {
+            return owner;
+        }
+        // 撤销可能登记的写意向，否则读者要等它过期
+        unlock(name, owner);
+        return null;
+    }
+
+    public void readUnlock(String name, String owner) {
+        unlock(name, owner);
+    }
+
+    public void writeUnlock(String name, String owner) {
+        unlock(name, owner);
+    }
+
+    private void unlock(String name, String owner) {
+        try {
+            Long unlocked = scriptRegistry.execute("rwUnlock", Long.class, keys(name), owner, WAKE_CHANNEL_PREFIX + name);
+            log.info("rwLock.name{}: - owner:{}: - unlocked:{}", name, owner, unlocked);
+        } catch (Exception e) {
+            log.error("error", e);
+        }
+    }
+
+    private boolean acquire(String name, long waitMillis, BooleanSupplier attempt) {
+
+        long end = System.currentTimeMillis() + waitMillis;
+        try {
+            return attempt.getAsBoolean() || signals.await(name, end, FALLBACK_POLL_MILLIS, attempt);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("error", e);
+        }
+        return false;
+    }
+
+    private boolean execute(String script, List<String> keys, Object... args) {
+        Long result = scriptRegistry.execute(script, Long.class, keys, args);
+        return result != null && result == 1L;
+    }
+
+    private void onWake(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        signals.signal(channel.substring(WAKE_CHANNEL_PREFIX.length()));
+    }
+
+    private static List<String> keys(String name) {
+        String prefix = "rwlock:{" + name + "}";
+        return Arrays.asList(prefix + ":writer", prefix + ":readers", prefix + ":intent");
+    }
+}
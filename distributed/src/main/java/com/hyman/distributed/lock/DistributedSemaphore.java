@@ -0,0 +1,134 @@
+package com.hyman.distributed.lock;
+
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 分布式信号量，使用 lua
+ *
+ * 锁只允许一个持有者，而很多场景需要的是“最多 K 个并发”，如限制同时调用一个慢的下游服务的请求数。信号量的许可保存在 zset 中，
+ * member 为许可标识，score 为该许可租约的过期时间：
+ * 1，获取、释放、续期都是一个 lua 脚本，一次网络往返；一次可以获取多个许可，要么全部获取，要么一个都不获取。
+ * 2，每次获取前先回收租约已过期的许可，持有者宕机后许可最多一个租约时间就会自动归还，不会永久泄漏。
+ * 3，释放时通过发布订阅唤醒等待者，收不到通知时兜底轮询。
+ * 所有 key 使用 {信号量名} 作为 hash tag。
+ */
+@Slf4j
+@Component
+public class DistributedSemaphore {
+
+    private static final String WAKE_CHANNEL_PREFIX = "semaphore:wake:";
+
+    /**
+     * 收不到唤醒通知时的兜底轮询间隔，毫秒
+     */
+    private static final long FALLBACK_POLL_MILLIS = 100;
+
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    private final LockSignals signals = new LockSignals();
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this::onWake, new PatternTopic(WAKE_CHANNEL_PREFIX + "*"));
+    }
+
+    /**
+     * 获取许可
+     *
+     * @param name        信号量名
+     * @param limit       许可总数，即最大并发数，同一个信号量的所有调用方需要使用相同的值
+     * @param permits     本次获取的许可数
+     * @param waitMillis  最长等待时间，毫秒
+     * @param leaseMillis 许可的租约时间，毫秒，超过这个时间没有释放或者续期的许可会被回收
+     * @return 获取到的许可标识，用于释放和续期；超时返回 null
+     */
+    public List<String> acquire(String name, int limit, int permits, long waitMillis, long leaseMillis) {
+
+        if (permits <= 0 || permits > limit) {
+            throw new IllegalArgumentException("许可数必须在 1 到 " + limit + " 之间：" + permits);
+        }
+        String owner = UUID.randomUUID().toString();
+        List<String> ids = new ArrayList<>(permits);
+        for (int i = 0; i < permits; i++) {
+            ids.add(owner + ":" + i);
+        }
+
+        List<String> keys = keys(name);
+        long end = System.currentTimeMillis() + waitMillis;
+        try {
+            if (tryAcquire(keys, limit, leaseMillis, ids)
+                    || signals.await(name, end, FALLBACK_POLL_MILLIS, () -> tryAcquire(keys, limit, leaseMillis, ids))) {
+                return ids;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("error", e);
+        }
+        return null;
+    }
+
+    public void release(String name, Collection<String> permits) {
+        try {
+            List<Object> args = new ArrayList<>(permits.size() + 1);
+            args.add(WAKE_CHANNEL_PREFIX + name);
+            args.addAll(permits);
+            Long released = scriptRegistry.execute("semaphoreRelease", Long.class, keys(name), args.toArray());
+            log.info("semaphore.name{}: - permits:{}: - released:{}", name, permits, released);
+        } catch (Exception e) {
+            // 没有释放的许可租约到期后会被回收
+            log.error("error", e);
+        }
+    }
+
+    /**
+     * 续期许可，持有时间可能超过租约时间时需要定期调用
+     *
+     * @return 续期成功的许可数，小于持有的许可数说明有许可已经过期被回收
+     */
+    public long renew(String name, Collection<String> permits, long leaseMillis) {
+        List<Object> args = new ArrayList<>(permits.size() + 2);
+        args.add(String.valueOf(leaseMillis));
+        args.add(String.valueOf(System.currentTimeMillis()));
+        args.addAll(permits);
+        Long renewed = scriptRegistry.execute("semaphoreRenew", Long.class, keys(name), args.toArray());
+        return renewed == null ? 0 : renewed;
+    }
+
+    private boolean tryAcquire(List<String> keys, int limit, long leaseMillis, List<String> ids) {
+        List<Object> args = new ArrayList<>(ids.size() + 3);
+        args.add(String.valueOf(limit));
+        args.add(String.valueOf(leaseMillis));
+        args.add(String.valueOf(System.currentTimeMillis()));
+        args.addAll(ids);
+        Long acquired = scriptRegistry.execute("semaphoreAcquire", Long.class, keys, args.toArray());
+        return acquired != null && acquired == 1L;
+    }
+
+    private void onWake(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        signals.signal(channel.substring(WAKE_CHANNEL_PREFIX.length()));
+    }
+
+    private static List<String> keys(String name) {
+        return Collections.singletonList("semaphore:{" + name + "}:holders");
+    }
+}
@@ -0,0 +1,139 @@
+package com.hyman.distributed.lock;
+
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 公平分布式锁，使用 lua
+ *
+ * DistributedLock2 是抢占式的，所有等待者不停地重试，谁运气好谁拿到锁，高并发下有的请求一直抢不到（饥饿），尾部延迟不可控。
+ * 公平锁为每个等待者在 zset 中发一个递增的排队号，只有队首才能获取锁；释放锁时只唤醒队首的一个等待者，而不是让所有人一起去抢。
+ *
+ * 等待者每隔一段时间会重新执行一次加锁脚本作为心跳，超时没有心跳的等待者（放弃或者宕机）会被清理出队列，避免堵住后面的人。
+ * 锁本身使用看门狗的租约并自动续期。
+ * 所有 key 使用 {锁名} 作为 hash tag，redis 集群下也在同一个槽。
+ */
+@Slf4j
+@Component
+public class FairDistributedLock {
+
+    private static final String WAKE_CHANNEL_PREFIX = "fairlock:wake:";
+
+    /**
+     * 等待者的心跳间隔，同时也是收不到唤醒通知时的兜底轮询间隔，毫秒
+     */
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    /**
+     * 等待者超过这个时间没有心跳就会被清理出队列，毫秒
+     */
+    private static final long WAITER_TIMEOUT_MILLIS = 5000;
+
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
+
+    @Autowired
+    private LockWatchdog watchdog;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 锁标识 -> 本 JVM 内正在排队的等待者
+     */
+    private final ConcurrentHashMap<String, Semaphore> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this::onWake, new PatternTopic(WAKE_CHANNEL_PREFIX + "*"));
+    }
+
+    /**
+     * 排队获取锁
+     *
+     * @param name       锁名
+     * @param waitMillis 最长排队时间，毫秒
+     * @return 锁标识，用于解锁；超时返回 null
+     */
+    public String tryLock(String name, long waitMillis) {
+
+        List<String> keys = keys(name);
+        String owner = UUID.randomUUID().toString();
+        String channel = WAKE_CHANNEL_PREFIX + name;
+        long end = System.currentTimeMillis() + waitMillis;
+
+        Semaphore wake = new Semaphore(0);
+        waiters.put(owner, wake);
+        try {
+            while (true) {
+                Long position = scriptRegistry.execute("fairLock", Long.class, keys, owner,
+                        String.valueOf(watchdog.getLeaseMillis()), String.valueOf(WAITER_TIMEOUT_MILLIS),
+                        String.valueOf(System.currentTimeMillis()), channel);
+                if (position != null && position == 0L) {
+                    watchdog.watch(keys.get(0), owner);
+                    return owner;
+                }
+
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wake.tryAcquire(Math.min(remaining, HEARTBEAT_MILLIS), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("error", e);
+        } finally {
+            waiters.remove(owner);
+        }
+
+        // 放弃排队，如果自己正好是队首，脚本会唤醒下一个等待者
+        leave(keys, owner, channel);
+        return null;
+    }
+
+    public void unlock(String name, String owner) {
+
+        List<String> keys = keys(name);
+        watchdog.unwatch(keys.get(0), owner);
+        Long unlocked = leave(keys, owner, WAKE_CHANNEL_PREFIX + name);
+        log.info("fairLock.name{}: - owner:{}: - unlocked:{}", name, owner, unlocked);
+    }
+
+    private Long leave(List<String> keys, String owner, String channel) {
+        try {
+            return scriptRegistry.execute("fairUnlock", Long.class, keys, owner, channel);
+        } catch (Exception e) {
+            // 没有退出队列的等待者会因为心跳超时被清理掉
+            log.error("error", e);
+            return null;
+        }
+    }
+
+    private void onWake(Message message, byte[] pattern) {
+        Semaphore wake = waiters.get(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (wake != null) {
+            wake.release();
+        }
+    }
+
+    private static List<String> keys(String name) {
+        String prefix = "fairlock:{" + name + "}";
+        return Arrays.asList(prefix, prefix + ":queue", prefix + ":ticket", prefix + ":timeout");
+    }
+}
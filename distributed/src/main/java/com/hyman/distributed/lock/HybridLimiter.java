@@ -0,0 +1,246 @@
+package com.hyman.distributed.lock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地预取令牌的混合限流，基于 DistributedLimit 的令牌桶（GCRA）
+ *
+ * 每次请求都同步调用一次 redis 脚本，即使流量远低于限制也要多一次网络往返。混合限流的做法：
+ * 1，每个 JVM 一次从 redis 的令牌桶中租一批令牌（默认为每个周期令牌数的 10%），放在本地的 AtomicLong 中，请求直接从本地扣减。
+ * 2，本地令牌低于批量的 20% 时异步补充下一批，正常情况下请求线程不会等待 redis。
+ * 3，租来的令牌有有效期，到期没有用完的归还给 redis 的令牌桶，避免流量少的 JVM 占着令牌不用。
+ * redis 的调用次数约为原来的 1/批量大小。
+ * 本地令牌按限流 key 保存，按调用方区分 key 时 key 的数量不固定：过期、归还之后没有剩余令牌，也不在等待重试时间的 key 会被移除，
+ * 之后再次访问时重新创建。
+ *
+ * 误差：令牌在租出时就计入全局限流，实际使用可能晚一个有效期，所以任意时间段内全局放行的请求数最多比限制多出
+ * “JVM 数 × 批量大小”；批量越小越精确，redis 调用也越多。
+ */
+@Slf4j
+@Component
+public class HybridLimiter {
+
+    /**
+     * 本地令牌低于批量的这个比例时异步补充
+     */
+    private static final double REFILL_THRESHOLD = 0.2;
+
+    @Autowired
+    private DistributedLimit distributedLimit;
+
+    /**
+     * 每次租用的令牌数占每个周期令牌数的比例
+     */
+    @Value("${distributed.limit.hybrid-batch-ratio:0.1}")
+    private double batchRatio;
+
+    /**
+     * 租来的令牌的有效期，毫秒，到期没有用完的归还
+     */
+    @Value("${distributed.limit.hybrid-lease-millis:1000}")
+    private long leaseMillis;
+
+    /**
+     * 限流的key -> 本地令牌
+     */
+    private final ConcurrentHashMap<String, LocalTokens> buckets = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "redis-limit-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(leaseMillis / 2, 1);
+        scheduler.scheduleAtFixedRate(this::expireAll, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        buckets.values().forEach(this::giveBack);
+    }
+
+    /**
+     * 获取一个令牌
+     *
+     * @param key    限流的key
+     * @param rate   每个周期产生的令牌数
+     * @param period 周期
+     * @param unit   周期的单位
+     * @param burst  突发容量，同一个 key 的所有调用方需要使用相同的参数
+     * @return 是否放行
+     */
+    public boolean tryAcquire(String key, long rate, long period, TimeUnit unit, long burst) {
+
+        while (true) {
+            LocalTokens bucket = buckets.computeIfAbsent(key, k -> new LocalTokens(k, rate, period, unit, burst,
+                    Math.max(1, Math.min(burst, (long) Math.ceil(rate * batchRatio)))));
+
+            if (bucket.take()) {
+                if (bucket.tokens.get() <= bucket.batch * REFILL_THRESHOLD
+                        && bucket.refilling.compareAndSet(false, true)) {
+                    scheduler.execute(() -> {
+                        try {
+                            lease(bucket);
+                        } finally {
+                            bucket.refilling.set(false);
+                        }
+                    });
+                }
+                return true;
+            }
+
+            // 本地没有令牌，同步租一批，同一个 key 同时只有一个线程去 redis；全局令牌已经用完时，在重试时间之前直接拒绝
+            synchronized (bucket) {
+                if (bucket.retired) {
+                    // 刚好被移除，使用新创建的
+                    continue;
+                }
+                if (bucket.take()) {
+                    return true;
+                }
+                if (System.currentTimeMillis() < bucket.blockedUntil) {
+                    return false;
+                }
+                lease(bucket);
+                return bucket.take();
+            }
+        }
+    }
+
+    /**
+     * 当前保存的限流 key 的数量
+     */
+    int getBucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * 租一批令牌，剩余的不够一批时有多少租多少
+     */
+    private void lease(LocalTokens bucket) {
+        synchronized (bucket) {
+            if (!bucket.retired) {
+                leaseLocked(bucket);
+            }
+        }
+    }
+
+    private void leaseLocked(LocalTokens bucket) {
+
+        DistributedLimit.RateLimitResult result = distributedLimit.rateLimit(bucket.key, bucket.rate, bucket.period,
+                bucket.unit, bucket.burst, bucket.batch);
+        long leased = result.isAllowed() ? bucket.batch : 0;
+        if (!result.isAllowed() && result.getRemaining() > 0) {
+            long remaining = result.getRemaining();
+            result = distributedLimit.rateLimit(bucket.key, bucket.rate, bucket.period, bucket.unit, bucket.burst,
+                    remaining);
+            leased = result.isAllowed() ? remaining : 0;
+        }
+        if (leased > 0) {
+            // 先延长有效期再加令牌，请求线程看到令牌时有效期一定已经更新
+            bucket.expiresAt = System.currentTimeMillis() + leaseMillis;
+            bucket.tokens.addAndGet(leased);
+        } else {
+            // 重试时间未知（redis 异常）时也等待一个有效期，避免被拒绝的请求每次都访问 redis
+            long retryAfter = result.getRetryAfterMillis() > 0 ? result.getRetryAfterMillis() : leaseMillis;
+            bucket.blockedUntil = System.currentTimeMillis() + retryAfter;
+        }
+    }
+
+    private void expireAll() {
+        long now = System.currentTimeMillis();
+        for (LocalTokens bucket : buckets.values()) {
+            if (bucket.expiresAt <= now) {
+                giveBack(bucket);
+                retireIfIdle(bucket, now);
+            }
+        }
+    }
+
+    /**
+     * 移除没有剩余令牌、也不在等待重试时间的 key。与租用互斥，移除之后不会再租到这个对象中
+     */
+    private void retireIfIdle(LocalTokens bucket, long now) {
+        synchronized (bucket) {
+            if (bucket.tokens.get() == 0 && !bucket.refilling.get() && bucket.expiresAt <= now
+                    && bucket.blockedUntil <= now) {
+                bucket.retired = true;
+                buckets.remove(bucket.key, bucket);
+            }
+        }
+    }
+
+    private void giveBack(LocalTokens bucket) {
+        long unused = bucket.tokens.getAndSet(0);
+        if (unused > 0) {
+            distributedLimit.refund(bucket.key, bucket.rate, bucket.period, bucket.unit, unused);
+        }
+    }
+
+    /**
+     * 一个限流 key 在本 JVM 内的令牌
+     */
+    private static final class LocalTokens {
+
+        private final String key;
+        private final long rate;
+        private final long period;
+        private final TimeUnit unit;
+        private final long burst;
+
+        /**
+         * 每次租用的令牌数
+         */
+        private final long batch;
+
+        private final AtomicLong tokens = new AtomicLong();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        private volatile long expiresAt;
+
+        /**
+         * 全局令牌用完后，在这个时间之前不再去 redis 租用
+         */
+        private volatile long blockedUntil;
+
+        /**
+         * 已经从 buckets 中移除，只在持有本对象的锁时读写
+         */
+        private boolean retired;
+
+        LocalTokens(String key, long rate, long period, TimeUnit unit, long burst, long batch) {
+            this.key = key;
+            this.rate = rate;
+            this.period = period;
+            this.unit = unit;
+            this.burst = burst;
+            this.batch = batch;
+        }
+
+        boolean take() {
+            long current;
+            while ((current = tokens.get()) > 0 && System.currentTimeMillis() < expiresAt) {
+                if (tokens.compareAndSet(current, current - 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.hyman.distributed.lock;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+/**
+ * DistributedLockProvider 默认方法使用的线程：到期自动释放锁的定时器，以及异步加锁时等待锁的线程
+ */
+@Slf4j
+final class LeaseSupport {
+
+    private static final ScheduledExecutorService EXPIRER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lock-lease-expire");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 异步加锁的等待线程数上限，以及线程都在等待时最多排队的请求数
+     */
+    static final int ASYNC_MAX_THREADS = 64;
+    static final int ASYNC_QUEUE = 1024;
+
+    private static final AtomicInteger ASYNC_THREADS = new AtomicInteger();
+
+    /**
+     * 每个等待中的异步加锁占用一个线程，线程数和排队数都有上限，已满时异步加锁立即异常完成，而不是无限创建线程；空闲 60 秒回收
+     */
+    private static final ThreadPoolExecutor ASYNC = new ThreadPoolExecutor(ASYNC_MAX_THREADS, ASYNC_MAX_THREADS,
+            60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(ASYNC_QUEUE), r -> {
+        Thread thread = new Thread(r, "lock-async-" + ASYNC_THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        ASYNC.allowCoreThreadTimeOut(true);
+    }
+
+    private LeaseSupport() {
+    }
+
+    /**
+     * leaseMillis 后自动释放 lease，提前释放时取消定时
+     */
+    static LockLease expireAfter(LockLease lease, long leaseMillis) {
+        ScheduledFuture<?> expire = EXPIRER.schedule(() -> {
+            log.warn("锁 {} 超过 {} 毫秒没有释放，自动释放", lease.getName(), leaseMillis);
+            lease.release();
+        }, leaseMillis, TimeUnit.MILLISECONDS);
+        return LockLease.of(lease.getName(), () -> {
+            expire.cancel(false);
+            lease.release();
+        });
+    }
+
+    /**
+     * 在等待线程中执行 acquire，参数为剩余的等待时间（毫秒），从调用时开始计算，排队的时间也算在内。
+     * 调用方已经取消 future 时不再获取，取消之后才获取到的锁立即释放；等待线程和排队都已满时异常完成（RejectedExecutionException）
+     */
+    static CompletableFuture<LockLease> async(long waitMillis, LongFunction<LockLease> acquire) {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        CompletableFuture<LockLease> future = new CompletableFuture<>();
+        try {
+            ASYNC.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    LockLease lease = acquire.apply(Math.max(deadline - System.currentTimeMillis(), 0));
+                    if (!future.complete(lease) && lease != null) {
+                        lease.release();
+                    }
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("异步加锁的等待线程已满");
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
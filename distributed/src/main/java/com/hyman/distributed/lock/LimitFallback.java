@@ -0,0 +1,247 @@
+package com.hyman.distributed.lock;
+
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * redis 不可用时的本地降级限流，DistributedLimit 使用
+ *
+ * 原来 redis 异常时所有请求都被限流，redis 的一次抖动就变成整个服务不可用。降级的做法：
+ * 1，熔断：连续 breaker-failures 次调用 redis 失败后熔断，breaker-open-millis 内不再访问 redis（也不再等待超时、打印异常），
+ *    直接使用本地限流；之后只放一个请求去探测 redis，成功则恢复，失败则继续熔断。
+ * 2，本地限流：每个 key 一个本地令牌桶，容量和速率为原限制除以节点数（node-count），所有节点加起来大致等于原来的全局限制。
+ * 3，恢复时对账：把熔断期间最近一个窗口内本地放行的请求数写回 redis 的滑动窗口计数，避免恢复后立即又放行一个完整窗口的请求；
+ *    令牌桶（GCRA）的状态只有一个时间戳，最多一个周期后自然恢复，不对账。然后清空本地令牌桶。
+ *
+ * 被限流时不分配对象（只有令牌桶第一次创建时），大量请求被拒绝时不会带来 GC 压力。
+ */
+@Slf4j
+@Component
+public class LimitFallback {
+
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
+
+    /**
+     * 集群的节点数，本地限流的限制为原限制除以节点数
+     */
+    @Value("${distributed.limit.node-count:1}")
+    private int nodeCount;
+
+    /**
+     * 连续失败多少次后熔断
+     */
+    @Value("${distributed.limit.breaker-failures:5}")
+    private int failureThreshold;
+
+    /**
+     * 熔断多久后探测 redis 是否恢复，毫秒
+     */
+    @Value("${distributed.limit.breaker-open-millis:5000}")
+    private long openMillis;
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * 熔断到什么时候，0 表示没有熔断
+     */
+    private volatile long openUntil;
+
+    /**
+     * 熔断到期后是否已经有请求在探测 redis
+     */
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    /**
+     * redis 的 key -> 本地令牌桶
+     */
+    private final ConcurrentHashMap<String, LocalBucket> buckets = new ConcurrentHashMap<>();
+
+    private ExecutorService reconciler;
+
+    @PostConstruct
+    public void start() {
+        reconciler = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "redis-limit-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        reconciler.shutdownNow();
+    }
+
+    /**
+     * 是否调用 redis：没有熔断，或者熔断到期并且由本次调用去探测
+     */
+    public boolean useRedis() {
+        long until = openUntil;
+        if (until == 0) {
+            return true;
+        }
+        return System.currentTimeMillis() >= until && probing.compareAndSet(false, true);
+    }
+
+    /**
+     * 调用 redis 成功，探测成功时恢复并对账
+     */
+    public void onSuccess() {
+        if (openUntil != 0) {
+            if (probing.compareAndSet(true, false)) {
+                openUntil = 0;
+                failures.set(0);
+                log.warn("redis 已恢复，限流恢复使用 redis");
+                reconciler.execute(this::reconcile);
+            }
+        } else if (failures.get() != 0) {
+            failures.set(0);
+        }
+    }
+
+    /**
+     * 调用 redis 失败，连续失败达到阈值或者探测失败时熔断
+     */
+    public void onFailure() {
+        if (openUntil != 0) {
+            if (probing.compareAndSet(true, false)) {
+                openUntil = System.currentTimeMillis() + openMillis;
+            }
+        } else if (failures.incrementAndGet() >= failureThreshold) {
+            openUntil = System.currentTimeMillis() + openMillis;
+            log.warn("redis 连续 {} 次调用失败，限流降级为本地限流 {} 毫秒", failureThreshold, openMillis);
+        }
+    }
+
+    public boolean isOpen() {
+        return openUntil != 0;
+    }
+
+    /**
+     * 本地令牌桶，第一次使用时创建
+     *
+     * @param key          redis 的 key
+     * @param capacity     全局的容量（滑动窗口为窗口内的限制，令牌桶为突发容量）
+     * @param rate         全局每个周期产生的令牌数
+     * @param periodMillis 周期，毫秒
+     * @param window       滑动窗口的窗口大小（毫秒），恢复时按它对账；令牌桶为 0，不对账
+     */
+    LocalBucket bucket(String key, long capacity, long rate, long periodMillis, long window) {
+        LocalBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            int nodes = Math.max(nodeCount, 1);
+            bucket = buckets.computeIfAbsent(key, k -> new LocalBucket(k, Math.max(capacity / nodes, 1),
+                    (double) rate / nodes / periodMillis, window));
+        }
+        return bucket;
+    }
+
+    /**
+     * 把最近一个窗口内本地放行的请求数写回 redis，然后清空本地令牌桶
+     */
+    private void reconcile() {
+        long now = System.currentTimeMillis();
+        for (LocalBucket bucket : buckets.values()) {
+            long count = bucket.recent(now);
+            if (bucket.window > 0 && count > 0) {
+                try {
+                    scriptRegistry.execute("limitRecord", Long.class, Collections.singletonList(bucket.key),
+                            count, bucket.window, DistributedLimit.SUB_WINDOWS, now);
+                } catch (Exception e) {
+                    log.error("error", e);
+                }
+            }
+        }
+        buckets.clear();
+    }
+
+    /**
+     * 一个 key 在本 JVM 内的降级令牌桶
+     */
+    static final class LocalBucket {
+
+        private final String key;
+        private final long capacity;
+
+        /**
+         * 每毫秒产生的令牌数
+         */
+        private final double ratePerMillis;
+
+        private final long window;
+
+        private double tokens;
+        private long refilledAt;
+
+        /**
+         * 最近一个窗口内放行的请求数，恢复时对账用
+         */
+        private long recentCount;
+        private long recentStart;
+
+        LocalBucket(String key, long capacity, double ratePerMillis, long window) {
+            this.key = key;
+            this.capacity = capacity;
+            this.ratePerMillis = ratePerMillis;
+            this.window = window;
+            this.tokens = capacity;
+            this.refilledAt = System.currentTimeMillis();
+        }
+
+        /**
+         * 取 cost 个令牌，不够时一个也不取
+         */
+        synchronized boolean tryTake(long cost) {
+            long now = refill();
+            if (tokens < cost) {
+                return false;
+            }
+            tokens -= cost;
+            if (window > 0 && now - recentStart >= window) {
+                recentStart = now;
+                recentCount = 0;
+            }
+            recentCount += cost;
+            return true;
+        }
+
+        /**
+         * 归还令牌，如多个 key 一起检查时有一个被拒绝
+         */
+        synchronized void giveBack(long cost) {
+            tokens = Math.min(capacity, tokens + cost);
+            recentCount = Math.max(0, recentCount - cost);
+        }
+
+        synchronized long available() {
+            refill();
+            return (long) tokens;
+        }
+
+        private synchronized long recent(long now) {
+            return now - recentStart < window ? recentCount : 0;
+        }
+
+        private long refill() {
+            long now = System.currentTimeMillis();
+            if (now > refilledAt) {
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerMillis);
+                refilledAt = now;
+            }
+            return now;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.hyman.distributed.lock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个滑动窗口限流器：key、窗口内允许的请求数、窗口大小，用于 DistributedLimit.checkAll 一次检查多个限流器。
+ * 不可变，固定的限流器（如全局、按接口）可以创建一次重复使用，redis 的 key 和窗口毫秒数在创建时就计算好。
+ */
+public final class LimitSpec {
+
+    private final String key;
+    private final long limit;
+    private final long windowMillis;
+
+    /**
+     * redis 中的 key，与 DistributedLimit.distributedLimit 相同
+     */
+    private final String redisKey;
+
+    private LimitSpec(String key, long limit, long windowMillis) {
+        this.key = key;
+        this.limit = limit;
+        this.windowMillis = windowMillis;
+        this.redisKey = "limit:{" + key + "}";
+    }
+
+    /**
+     * @param key    限流的key
+     * @param limit  窗口内允许的请求数
+     * @param window 窗口大小
+     * @param unit   窗口大小的单位
+     */
+    public static LimitSpec of(String key, long limit, long window, TimeUnit unit) {
+        return new LimitSpec(key, limit, unit.toMillis(window));
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    String getRedisKey() {
+        return redisKey;
+    }
+
+    @Override
+    public String toString() {
+        return key + "(" + limit + "/" + windowMillis + "ms)";
+    }
+}
@@ -0,0 +1,206 @@
+package com.hyman.distributed.lock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 本地优先的两级分布式锁，包装 DistributedLock2
+ *
+ * 同一个 JVM 内几百个线程抢同一个 key 时，如果每个线程都各自去 redis 重试，redis 的锁请求量会放大几百倍，而这些线程之间
+ * 本来用一把本地锁就能排好队。两级锁的做法：
+ * 1，同一个 JVM 内的线程先在该 key 的本地 ReentrantLock 上排队，只有拿到本地锁的线程才去 redis 获取分布式锁。
+ * 2，释放时如果本地还有线程在排队，不释放 redis 的锁，而是把租约直接交给下一个本地线程，交接只是一次本地锁的释放和获取。
+ * 3，为了不让其他 JVM 饥饿，连续本地交接的次数达到上限后必须释放 redis 的锁，让所有 JVM 重新竞争。
+ *
+ * redis 的锁由看门狗续期，交接前会确认租约仍然有效；续期失败（锁已经不属于自己）时接手的线程重新去 redis 获取。
+ * 本地锁保存在 value 为弱引用的 map 中，没有线程使用、也没有持有租约的 key 会被 GC 回收，不会随 key 的数量无限增长。
+ */
+@Slf4j
+@Component
+public class LocalFirstLock {
+
+    /**
+     * 本地锁的持有者获取 redis 锁失败时的重试间隔，毫秒
+     */
+    private static final long RETRY_MILLIS = 10;
+
+    @Autowired
+    private DistributedLock2 lock2;
+
+    @Autowired
+    private LockWatchdog watchdog;
+
+    /**
+     * 连续本地交接的最大次数，达到后释放 redis 的锁，让其他 JVM 有机会获取
+     */
+    @Value("${distributed.lock.max-local-handoffs:16}")
+    private int maxLocalHandoffs;
+
+    /**
+     * 锁的 key -> 本地锁，弱引用
+     */
+    private final ConcurrentHashMap<String, KeyRef> locks = new ConcurrentHashMap<>();
+    private final ReferenceQueue<KeyLock> collected = new ReferenceQueue<>();
+
+    /**
+     * 锁的 key -> 持有 redis 租约的本地锁。持有租约期间（包括交接的间隙）必须保持强引用，否则本地锁被回收后会为同一个 key
+     * 再创建一把新的本地锁
+     */
+    private final ConcurrentHashMap<String, KeyLock> leased = new ConcurrentHashMap<>();
+
+    /**
+     * 获取锁，支持同一线程重入
+     *
+     * @param key        锁的key
+     * @param waitMillis 最长等待时间（本地排队和获取 redis 锁一共），毫秒
+     * @return 是否获取成功
+     */
+    public boolean lock(String key, long waitMillis) {
+
+        long end = System.currentTimeMillis() + waitMillis;
+        KeyLock keyLock = lockFor(key);
+        try {
+            if (!keyLock.local.tryLock(waitMillis, TimeUnit.MILLISECONDS)) {
+                // 超时的同时持有者可能刚好认为还有人排队而保留了租约，这时本地锁是空闲的，需要由自己释放租约
+                if (keyLock.local.tryLock()) {
+                    unlock(key);
+                }
+                return false;
+            }
+        } catch (InterruptedException e) {
+            // 与超时相同，持有者可能因为自己在排队而保留了租约
+            if (keyLock.local.tryLock()) {
+                unlock(key);
+            }
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        // 拿到本地锁之后，获取 redis 锁失败、被中断或者抛出异常都要释放本地锁，否则这个 key 在本 JVM 内再也拿不到
+        boolean locked = false;
+        try {
+            if (keyLock.local.getHoldCount() > 1) {
+                locked = true;
+            } else if (keyLock.uuid != null && watchdog.isWatching(key, keyLock.uuid)) {
+                // 上一个本地持有者交接过来的租约
+                locked = true;
+            } else {
+                locked = acquire(key, keyLock, end);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!locked) {
+                keyLock.local.unlock();
+            }
+        }
+        return locked;
+    }
+
+    public void unlock(String key) {
+
+        KeyLock keyLock = lockFor(key);
+        if (!keyLock.local.isHeldByCurrentThread()) {
+            log.error("锁释放失败，当前线程未持有本地锁" + key);
+            return;
+        }
+        if (keyLock.local.getHoldCount() > 1) {
+            keyLock.local.unlock();
+            return;
+        }
+
+        if (keyLock.uuid != null && keyLock.local.hasQueuedThreads() && keyLock.handoffs < maxLocalHandoffs) {
+            keyLock.handoffs++;
+        } else {
+            release(key, keyLock);
+        }
+        keyLock.local.unlock();
+    }
+
+    private boolean acquire(String key, KeyLock keyLock, long end) throws InterruptedException {
+
+        // 交接过来的租约已经失效，先清理
+        if (keyLock.uuid != null) {
+            release(key, keyLock);
+        }
+        String uuid = UUID.randomUUID().toString();
+        while (!Boolean.TRUE.equals(lock2.distributedLock(key, uuid))) {
+            if (System.currentTimeMillis() >= end) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(RETRY_MILLIS);
+        }
+        keyLock.uuid = uuid;
+        keyLock.handoffs = 0;
+        leased.put(key, keyLock);
+        return true;
+    }
+
+    private void release(String key, KeyLock keyLock) {
+        if (keyLock.uuid == null) {
+            return;
+        }
+        try {
+            lock2.distributedUnlock(key, keyLock.uuid);
+        } catch (Exception e) {
+            // 看门狗已经停止续期，锁最多一个租约时间后自动过期
+            log.error("error", e);
+        }
+        keyLock.uuid = null;
+        keyLock.handoffs = 0;
+        leased.remove(key, keyLock);
+    }
+
+    private KeyLock lockFor(String key) {
+
+        expungeCollected();
+        while (true) {
+            KeyRef ref = locks.get(key);
+            KeyLock keyLock = ref == null ? null : ref.get();
+            if (keyLock != null) {
+                return keyLock;
+            }
+            KeyLock created = new KeyLock();
+            KeyRef createdRef = new KeyRef(key, created, collected);
+            if (ref == null ? locks.putIfAbsent(key, createdRef) == null : locks.replace(key, ref, createdRef)) {
+                return created;
+            }
+        }
+    }
+
+    private void expungeCollected() {
+        KeyRef ref;
+        while ((ref = (KeyRef) collected.poll()) != null) {
+            locks.remove(ref.key, ref);
+        }
+    }
+
+    /**
+     * 一个 key 的本地锁，以及当前持有的 redis 租约。uuid 和 handoffs 只由持有本地锁的线程读写
+     */
+    private static final class KeyLock {
+
+        private final ReentrantLock local = new ReentrantLock();
+        private String uuid;
+        private int handoffs;
+    }
+
+    private static final class KeyRef extends WeakReference<KeyLock> {
+
+        private final String key;
+
+        KeyRef(String key, KeyLock keyLock, ReferenceQueue<KeyLock> queue) {
+            super(keyLock, queue);
+            this.key = key;
+        }
+    }
+}
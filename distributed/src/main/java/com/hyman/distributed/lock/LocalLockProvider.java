@@ -0,0 +1,109 @@
+package com.hyman.distributed.lock;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 只在本 JVM 内有效的 DistributedLockProvider，用于单节点部署和测试，没有网络开销。
+ * 互斥锁、信号量使用公平的 Semaphore，可以在任意线程释放；读写锁使用公平的 ReentrantReadWriteLock，必须在加锁的线程释放。
+ * 每个锁名的锁在有线程持有或者等待时才存在，用完即删除，不会随锁名的数量无限增长。租约时间不使用，isLeader 总是返回 true。
+ */
+@Component
+public class LocalLockProvider implements DistributedLockProvider {
+
+    private final ConcurrentHashMap<String, Holder<Semaphore>> mutexes = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Holder<ReentrantReadWriteLock>> readWriteLocks = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Holder<Semaphore>> semaphores = new ConcurrentHashMap<>();
+
+    @Override
+    public LockLease tryLock(String name, long waitMillis) {
+        return acquire(mutexes, name, k -> new Semaphore(1, true),
+                lock -> lock.tryAcquire(waitMillis, TimeUnit.MILLISECONDS), Semaphore::release);
+    }
+
+    @Override
+    public LockLease tryReadLock(String name, long waitMillis, long leaseMillis) {
+        return acquire(readWriteLocks, name, k -> new ReentrantReadWriteLock(true),
+                lock -> lock.readLock().tryLock(waitMillis, TimeUnit.MILLISECONDS), lock -> lock.readLock().unlock());
+    }
+
+    @Override
+    public LockLease tryWriteLock(String name, long waitMillis, long leaseMillis) {
+        return acquire(readWriteLocks, name, k -> new ReentrantReadWriteLock(true),
+                lock -> lock.writeLock().tryLock(waitMillis, TimeUnit.MILLISECONDS), lock -> lock.writeLock().unlock());
+    }
+
+    /**
+     * 许可总数以第一个调用方的 limit 为准
+     */
+    @Override
+    public LockLease tryAcquire(String name, int limit, int permits, long waitMillis, long leaseMillis) {
+        return acquire(semaphores, name, k -> new Semaphore(limit, true),
+                lock -> lock.tryAcquire(permits, waitMillis, TimeUnit.MILLISECONDS), lock -> lock.release(permits));
+    }
+
+    @Override
+    public boolean isLeader(String name) {
+        return true;
+    }
+
+    /**
+     * 取出（没有时创建）锁并增加使用者后获取，获取失败或者释放后减少使用者，使用者为 0 时删除
+     */
+    private static <T> LockLease acquire(ConcurrentHashMap<String, Holder<T>> locks, String name,
+                                         Function<String, T> create, Acquirer<T> acquirer, Consumer<T> releaser) {
+
+        Holder<T> holder = locks.compute(name, (k, v) -> {
+            if (v == null) {
+                v = new Holder<>(create.apply(k));
+            }
+            v.users++;
+            return v;
+        });
+
+        boolean acquired = false;
+        try {
+            acquired = acquirer.acquire(holder.lock);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!acquired) {
+                unuse(locks, name);
+            }
+        }
+        return acquired ? LockLease.of(name, () -> {
+            releaser.accept(holder.lock);
+            unuse(locks, name);
+        }) : null;
+    }
+
+    private static <T> void unuse(ConcurrentHashMap<String, Holder<T>> locks, String name) {
+        locks.computeIfPresent(name, (k, v) -> --v.users == 0 ? null : v);
+    }
+
+    private interface Acquirer<T> {
+
+        boolean acquire(T lock) throws InterruptedException;
+    }
+
+    /**
+     * 锁和它的使用者（持有和等待）数量，users 只在 map 的 compute 中修改
+     */
+    private static final class Holder<T> {
+
+        private final T lock;
+        private int users;
+
+        Holder(T lock) {
+            this.lock = lock;
+        }
+    }
+}
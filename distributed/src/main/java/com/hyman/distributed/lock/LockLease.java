@@ -0,0 +1,44 @@
+package com.hyman.distributed.lock;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 获取到的锁（或者信号量许可），由 DistributedLockProvider 返回，用完调用 release 释放，可以用在 try-with-resources 中
+ */
+public interface LockLease extends AutoCloseable {
+
+    /**
+     * 锁名
+     */
+    String getName();
+
+    /**
+     * 释放，重复释放没有影响
+     */
+    void release();
+
+    @Override
+    default void close() {
+        release();
+    }
+
+    /**
+     * 释放时执行 release，只执行一次
+     */
+    static LockLease of(String name, Runnable release) {
+        AtomicBoolean released = new AtomicBoolean();
+        return new LockLease() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public void release() {
+                if (released.compareAndSet(false, true)) {
+                    release.run();
+                }
+            }
+        };
+    }
+}
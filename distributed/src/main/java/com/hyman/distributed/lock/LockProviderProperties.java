@@ -0,0 +1,27 @@
+package com.hyman.distributed.lock;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * RoutingLockProvider 的配置，后端的名字为 redis、zk、hybrid、local（对应 bean 名为 后端名 + LockProvider）
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "distributed.lock.provider")
+public class LockProviderProperties {
+
+    /**
+     * 没有匹配的前缀时使用的后端
+     */
+    private String defaultBackend = "redis";
+
+    /**
+     * 锁名前缀 -> 后端，匹配多个时使用最长的前缀
+     */
+    private Map<String, String> routes = new LinkedHashMap<>();
+}
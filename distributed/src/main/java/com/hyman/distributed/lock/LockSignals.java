@@ -0,0 +1,89 @@
+package com.hyman.distributed.lock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 本地等待信号表：锁的 key -> 本 JVM 内等待该锁的线程共用的信号。
+ * 收到锁释放的通知（redis 发布订阅）后唤醒该锁的等待者立即重试，代替各自 sleep 轮询；通知可能丢失，所以等待者最多阻塞
+ * pollMillis 就会重试一次。信号只在有线程等待时存在，最后一个等待者离开时移除。
+ */
+class LockSignals {
+
+    private final ConcurrentHashMap<String, Signal> signals = new ConcurrentHashMap<>();
+
+    /**
+     * 等待并反复尝试获取锁，直到成功或者到达 deadline
+     *
+     * @param key        锁的 key
+     * @param deadline   放弃等待的时间戳，毫秒
+     * @param pollMillis 收不到通知时的兜底轮询间隔，毫秒
+     * @param attempt    一次获取锁的尝试
+     */
+    boolean await(String key, long deadline, long pollMillis, BooleanSupplier attempt) throws InterruptedException {
+
+        Signal signal = signals.compute(key, (k, s) -> {
+            Signal registered = s == null ? new Signal() : s;
+            registered.waiters++;
+            return registered;
+        });
+        try {
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                // 先记下当前的通知序号再尝试，尝试失败后如果序号已经变了，说明期间锁被释放过，不需要等待直接重试
+                long seen = signal.generation();
+                if (attempt.getAsBoolean()) {
+                    return true;
+                }
+                signal.awaitChange(seen, Math.min(remaining, pollMillis));
+            }
+            return false;
+        } finally {
+            signals.computeIfPresent(key, (k, s) -> --s.waiters == 0 ? null : s);
+        }
+    }
+
+    /**
+     * 唤醒等待该锁的所有线程
+     */
+    void signal(String key) {
+        Signal signal = signals.get(key);
+        if (signal != null) {
+            signal.signalAll();
+        }
+    }
+
+    /**
+     * 唤醒所有等待者，用于订阅连接断开、期间的通知已经丢失的情况
+     */
+    void signalAll() {
+        signals.values().forEach(Signal::signalAll);
+    }
+
+    /**
+     * generation 为收到的释放通知次数
+     */
+    private static final class Signal {
+
+        /**
+         * 等待者数量，只在 signals 的 compute 中修改
+         */
+        private int waiters;
+        private long generation;
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        synchronized void signalAll() {
+            generation++;
+            notifyAll();
+        }
+
+        synchronized void awaitChange(long seen, long millis) throws InterruptedException {
+            if (generation == seen) {
+                wait(millis);
+            }
+        }
+    }
+}
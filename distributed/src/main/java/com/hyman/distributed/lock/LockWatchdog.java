@@ -0,0 +1,140 @@
+package com.hyman.distributed.lock;
+
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁看门狗，自动续期本 JVM 持有的锁。
+ *
+ * 固定的过期时间很难选：设置得长，持有者宕机后其他人要等满整个过期时间；设置得短，业务还没执行完锁就过期了，出现两个持有者。
+ * 看门狗的做法是使用较短的租约（默认 3 秒），持有期间每 1/3 租约时间续期一次，直到解锁或者发现锁已经不属于自己。
+ *
+ * 整个 JVM 只有一个续期线程，每次续期把所有持有的锁通过 lua 脚本批量完成（每批一次脚本调用，所有批次一次 pipeline），
+ * 而不是每个锁一个线程、一次请求。
+ * 注意：redis 集群下一个脚本的所有 key 必须在同一个槽，需要使用 {hash tag} 的锁名。
+ */
+@Slf4j
+@Component
+public class LockWatchdog {
+
+    /**
+     * 单次脚本续期的最大锁数量，避免一个脚本执行时间过长阻塞 redis
+     */
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
+
+    /**
+     * 锁的租约时间，毫秒
+     */
+    @Value("${distributed.lock.lease-millis:3000}")
+    private long leaseMillis;
+
+    /**
+     * 锁的 key -> 锁标识
+     */
+    private final Map<String, String> leases = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "redis-lock-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(leaseMillis / 3, 1);
+        scheduler.scheduleAtFixedRate(this::renewAll, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /**
+     * 开始续期，锁必须是以 {@link #getLeaseMillis()} 为过期时间获取的
+     */
+    public void watch(String key, String uuid) {
+        leases.put(key, uuid);
+    }
+
+    /**
+     * 停止续期，需要在解锁之前调用
+     */
+    public void unwatch(String key, String uuid) {
+        leases.remove(key, uuid);
+    }
+
+    /**
+     * 锁是否还在续期中，续期时发现锁已经不属于自己会停止续期
+     */
+    public boolean isWatching(String key, String uuid) {
+        return uuid.equals(leases.get(key));
+    }
+
+    private void renewAll() {
+
+        if (leases.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(leases.size());
+        List<String> uuids = new ArrayList<>(leases.size());
+        leases.forEach((key, uuid) -> {
+            keys.add(key);
+            uuids.add(uuid);
+        });
+
+        // 每批一次脚本调用，所有批次通过 pipeline 在一次网络往返中发出
+        List<List<String>> batchKeys = new ArrayList<>();
+        List<Object[]> batchArgs = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += BATCH_SIZE) {
+            int to = Math.min(from + BATCH_SIZE, keys.size());
+            List<String> batchUuids = uuids.subList(from, to);
+            Object[] args = new Object[batchUuids.size() + 1];
+            batchUuids.toArray(args);
+            args[batchUuids.size()] = String.valueOf(leaseMillis);
+            batchKeys.add(keys.subList(from, to));
+            batchArgs.add(args);
+        }
+
+        List<Object> results;
+        try {
+            results = scriptRegistry.executePipelined("renew", List.class, batchKeys, batchArgs);
+        } catch (Exception e) {
+            // 续期失败不移除，下一轮继续尝试，在租约到期前恢复就不会丢锁
+            log.error("锁续期失败，keys:{}", keys, e);
+            return;
+        }
+
+        int index = 0;
+        for (Object batch : results) {
+            for (Object renewed : (List<?>) batch) {
+                if (!Long.valueOf(1L).equals(renewed)) {
+                    leases.remove(keys.get(index), uuids.get(index));
+                    log.warn("锁已经不属于自己，停止续期，key:{} - uuid:{}", keys.get(index), uuids.get(index));
+                }
+                index++;
+            }
+        }
+    }
+}
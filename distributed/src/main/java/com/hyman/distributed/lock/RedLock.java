@@ -0,0 +1,233 @@
+package com.hyman.distributed.lock;
+
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.params.SetParams;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedLock 多数派分布式锁
+ *
+ * 单个 redis 上的锁在主从切换时可能丢失：锁写入了主节点但还没同步到从节点，主节点宕机后从节点升级为主，另一个客户端就可以再次
+ * 获取同一把锁。RedLock 使用 N 个相互独立（非主从、非集群）的 redis 节点：
+ * 1，在所有节点上并行加锁（相同的 key 和随机值），每个节点有单独的超时时间，某个节点宕机或者变慢不会拖住整个加锁过程。
+ * 2，多数节点（N/2+1）加锁成功，并且从开始加锁到现在的耗时小于锁的过期时间，才算获取成功，锁的有效时间为过期时间减去耗时
+ *    和时钟漂移。达到多数后立即返回，加锁耗时取决于多数派中最慢的节点，而不是所有节点耗时之和。
+ * 3，获取失败或者解锁时，在所有节点上异步释放（只删除值是自己的锁）。
+ *
+ * 注意：持有者需要在有效时间内完成业务，RedLock 不会自动续期。
+ */
+@Slf4j
+public class RedLock {
+
+    private static final String KEY_PREFIX = "redlock:";
+
+    /**
+     * 时钟漂移系数，有效时间需要减去过期时间的 1%，再加 2 毫秒
+     */
+    private static final double CLOCK_DRIFT_FACTOR = 0.01;
+
+    /**
+     * 获取失败后的最大随机重试间隔，毫秒，随机是为了避免多个客户端同时重试、再次平分节点
+     */
+    private static final long MAX_RETRY_DELAY_MILLIS = 50;
+
+    private final List<JedisPool> nodes;
+
+    private final RedisScriptRegistry scriptRegistry;
+
+    /**
+     * 单个节点的加锁超时时间，毫秒，应该远小于锁的过期时间
+     */
+    private final long nodeTimeoutMillis;
+
+    private final int quorum;
+
+    private final ExecutorService executor;
+
+    public RedLock(List<JedisPool> nodes, RedisScriptRegistry scriptRegistry, long nodeTimeoutMillis) {
+        this.nodes = new ArrayList<>(nodes);
+        this.scriptRegistry = scriptRegistry;
+        this.nodeTimeoutMillis = nodeTimeoutMillis;
+        this.quorum = nodes.size() / 2 + 1;
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "redlock-node");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        for (JedisPool node : nodes) {
+            node.close();
+        }
+    }
+
+    /**
+     * 获取锁，失败后随机等待一段时间重试
+     *
+     * @param name        锁名
+     * @param leaseMillis 锁的过期时间，毫秒
+     * @param waitMillis  最长等待时间，毫秒
+     * @return 获取成功返回租约，超时返回 null
+     */
+    public Lease lock(String name, long leaseMillis, long waitMillis) {
+
+        long end = System.currentTimeMillis() + waitMillis;
+        try {
+            while (true) {
+                Lease lease = tryLock(name, leaseMillis);
+                if (lease != null) {
+                    return lease;
+                }
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                TimeUnit.MILLISECONDS.sleep(Math.min(remaining, ThreadLocalRandom.current().nextLong(MAX_RETRY_DELAY_MILLIS) + 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 尝试获取一次锁
+     *
+     * @param name        锁名
+     * @param leaseMillis 锁的过期时间，毫秒
+     * @return 获取成功返回租约，否则返回 null
+     */
+    public Lease tryLock(String name, long leaseMillis) throws InterruptedException {
+
+        String key = KEY_PREFIX + name;
+        String value = UUID.randomUUID().toString();
+        long start = System.currentTimeMillis();
+
+        BlockingQueue<Boolean> results = new LinkedBlockingQueue<>();
+        List<CompletableFuture<Boolean>> acquires = new ArrayList<>(nodes.size());
+        for (JedisPool node : nodes) {
+            CompletableFuture<Boolean> acquire = CompletableFuture.supplyAsync(
+                    () -> tryLockNode(node, key, value, leaseMillis), executor);
+            acquire.thenAccept(results::offer);
+            acquires.add(acquire);
+        }
+
+        int locked = 0;
+        int failed = 0;
+        long deadline = start + nodeTimeoutMillis;
+        // 达到多数立即返回，剩下的节点已经不可能达到多数时也立即返回，超时的节点不再等待
+        while (locked < quorum && failed <= nodes.size() - quorum) {
+            long remaining = deadline - System.currentTimeMillis();
+            Boolean result = remaining > 0 ? results.poll(remaining, TimeUnit.MILLISECONDS) : null;
+            if (result == null) {
+                break;
+            }
+            if (result) {
+                locked++;
+            } else {
+                failed++;
+            }
+        }
+
+        long drift = (long) (leaseMillis * CLOCK_DRIFT_FACTOR) + 2;
+        long validity = leaseMillis - (System.currentTimeMillis() - start) - drift;
+        Lease lease = new Lease(name, value, System.currentTimeMillis() + validity, acquires);
+        if (locked >= quorum && validity > 0) {
+            log.info("redLock.name{}: - value:{}: - locked:{}/{} - validity:{}", name, value, locked, nodes.size(), validity);
+            return lease;
+        }
+
+        log.info("redLock.name{}: - locked:{}/{} - validity:{} - failed", name, locked, nodes.size(), validity);
+        unlock(lease);
+        return null;
+    }
+
+    /**
+     * 在所有节点上异步释放锁，不等待结果。
+     * 每个节点的释放都排在该节点的加锁完成之后，否则释放先于还在路上的加锁执行，这个节点上的锁就要等到过期才会消失。
+     */
+    public void unlock(Lease lease) {
+        String key = KEY_PREFIX + lease.getName();
+        for (int i = 0; i < nodes.size(); i++) {
+            JedisPool node = nodes.get(i);
+            lease.acquires.get(i).whenCompleteAsync((locked, e) -> unlockNode(node, key, lease.getValue()), executor);
+        }
+    }
+
+    private void unlockNode(JedisPool node, String key, String value) {
+        try (Jedis jedis = node.getResource()) {
+            scriptRegistry.execute(jedis, "unlock", Collections.singletonList(key), Collections.singletonList(value));
+        } catch (Exception e) {
+            // 释放失败的节点上锁会自动过期
+            log.warn("redLock 节点释放失败，key:{} - {}", key, e.getMessage());
+        }
+    }
+
+    private static boolean tryLockNode(JedisPool node, String key, String value, long leaseMillis) {
+        try (Jedis jedis = node.getResource()) {
+            return "OK".equals(jedis.set(key, value, SetParams.setParams().nx().px(leaseMillis)));
+        } catch (Exception e) {
+            log.warn("redLock 节点加锁失败，key:{} - {}", key, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 获取成功的锁
+     */
+    public static final class Lease {
+
+        private final String name;
+        private final String value;
+        private final long validUntil;
+
+        /**
+         * 每个节点的加锁结果，释放时排在加锁之后
+         */
+        private final List<CompletableFuture<Boolean>> acquires;
+
+        Lease(String name, String value, long validUntil, List<CompletableFuture<Boolean>> acquires) {
+            this.name = name;
+            this.value = value;
+            this.validUntil = validUntil;
+            this.acquires = acquires;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * 锁的有效截止时间（本机时间戳，毫秒），超过这个时间不能再认为自己持有锁
+         */
+        public long getValidUntil() {
+            return validUntil;
+        }
+
+        public boolean isValid() {
+            return System.currentTimeMillis() < validUntil;
+        }
+    }
+}
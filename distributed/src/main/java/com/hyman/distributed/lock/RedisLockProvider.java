@@ -0,0 +1,89 @@
+package com.hyman.distributed.lock;
+
+import com.hyman.distributed.lock.lockconf.ThreadUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * redis 实现的 DistributedLockProvider：
+ * 互斥锁使用 FairDistributedLock（排队、看门狗续期），读写锁使用 DistributedReadWriteLock，信号量使用 DistributedSemaphore。
+ * leader 选举为一把由看门狗一直续期的锁，第一个抢到的节点一直持有，宕机后最多一个租约时间其他节点就能抢到。
+ */
+@Slf4j
+@Component
+public class RedisLockProvider implements DistributedLockProvider {
+
+    @Autowired
+    private FairDistributedLock fairLock;
+
+    @Autowired
+    private DistributedReadWriteLock readWriteLock;
+
+    @Autowired
+    private DistributedSemaphore semaphore;
+
+    @Autowired
+    private DistributedLock2 lock2;
+
+    @Autowired
+    private LockWatchdog watchdog;
+
+    /**
+     * 本节点参与选举的组
+     */
+    private final Set<String> elections = ConcurrentHashMap.newKeySet();
+
+    @PreDestroy
+    public void stop() {
+        // 主动让出 leader，其他节点不需要等待租约过期
+        for (String name : elections) {
+            if (watchdog.isWatching(leaderKey(name), ThreadUtils.jvmId())) {
+                lock2.distributedUnlock(leaderKey(name), ThreadUtils.jvmId());
+            }
+        }
+    }
+
+    @Override
+    public LockLease tryLock(String name, long waitMillis) {
+        String owner = fairLock.tryLock(name, waitMillis);
+        return owner == null ? null : LockLease.of(name, () -> fairLock.unlock(name, owner));
+    }
+
+    @Override
+    public LockLease tryReadLock(String name, long waitMillis, long leaseMillis) {
+        String owner = readWriteLock.readLock(name, waitMillis, leaseMillis);
+        return owner == null ? null : LockLease.of(name, () -> readWriteLock.readUnlock(name, owner));
+    }
+
+    @Override
+    public LockLease tryWriteLock(String name, long waitMillis, long leaseMillis) {
+        String owner = readWriteLock.writeLock(name, waitMillis, leaseMillis);
+        return owner == null ? null : LockLease.of(name, () -> readWriteLock.writeUnlock(name, owner));
+    }
+
+    @Override
+    public LockLease tryAcquire(String name, int limit, int permits, long waitMillis, long leaseMillis) {
+        List<String> ids = semaphore.acquire(name, limit, permits, waitMillis, leaseMillis);
+        return ids == null ? null : LockLease.of(name, () -> semaphore.release(name, ids));
+    }
+
+    @Override
+    public boolean isLeader(String name) {
+        elections.add(name);
+        String key = leaderKey(name);
+        if (watchdog.isWatching(key, ThreadUtils.jvmId())) {
+            return true;
+        }
+        return Boolean.TRUE.equals(lock2.distributedLock(key, ThreadUtils.jvmId()));
+    }
+
+    private static String leaderKey(String name) {
+        return "leader:{" + name + "}";
+    }
+}
@@ -0,0 +1,106 @@
+package com.hyman.distributed.lock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 按锁名的前缀把请求转给配置的后端（见 LockProviderProperties），注入 DistributedLockProvider 时默认得到的就是它。
+ * 启动时检查配置的后端都存在（如配置了 zk 但没有配置 zookeeper 连接时启动失败），路由只是遍历一次前缀列表，没有额外开销。
+ */
+@Slf4j
+@Primary
+@Component
+public class RoutingLockProvider implements DistributedLockProvider {
+
+    @Autowired
+    private BeanFactory beanFactory;
+
+    @Autowired
+    private LockProviderProperties properties;
+
+    private DistributedLockProvider defaultProvider;
+
+    /**
+     * 按前缀长度从长到短排列的路由
+     */
+    private final List<Route> routes = new ArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        defaultProvider = provider(properties.getDefaultBackend());
+        properties.getRoutes().forEach((prefix, backend) -> routes.add(new Route(prefix, provider(backend))));
+        routes.sort(Comparator.comparingInt((Route route) -> route.prefix.length()).reversed());
+        log.info("锁的后端，默认：{}，路由：{}", properties.getDefaultBackend(), properties.getRoutes());
+    }
+
+    /**
+     * 锁名对应的后端
+     */
+    public DistributedLockProvider route(String name) {
+        for (Route route : routes) {
+            if (name.startsWith(route.prefix)) {
+                return route.provider;
+            }
+        }
+        return defaultProvider;
+    }
+
+    @Override
+    public LockLease tryLock(String name, long waitMillis) {
+        return route(name).tryLock(name, waitMillis);
+    }
+
+    @Override
+    public LockLease tryLock(String name, long waitMillis, long leaseMillis) {
+        return route(name).tryLock(name, waitMillis, leaseMillis);
+    }
+
+    @Override
+    public CompletableFuture<LockLease> lockAsync(String name, long waitMillis) {
+        return route(name).lockAsync(name, waitMillis);
+    }
+
+    @Override
+    public LockLease tryReadLock(String name, long waitMillis, long leaseMillis) {
+        return route(name).tryReadLock(name, waitMillis, leaseMillis);
+    }
+
+    @Override
+    public LockLease tryWriteLock(String name, long waitMillis, long leaseMillis) {
+        return route(name).tryWriteLock(name, waitMillis, leaseMillis);
+    }
+
+    @Override
+    public LockLease tryAcquire(String name, int limit, int permits, long waitMillis, long leaseMillis) {
+        return route(name).tryAcquire(name, limit, permits, waitMillis, leaseMillis);
+    }
+
+    @Override
+    public boolean isLeader(String name) {
+        return route(name).isLeader(name);
+    }
+
+    private DistributedLockProvider provider(String backend) {
+        return beanFactory.getBean(backend + "LockProvider", DistributedLockProvider.class);
+    }
+
+    private static final class Route {
+
+        private final String prefix;
+        private final DistributedLockProvider provider;
+
+        Route(String prefix, DistributedLockProvider provider) {
+            this.prefix = prefix;
+            this.provider = provider;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.hyman.distributed.lock;
+
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 分段锁（锁条带化），以及分段库存
+ *
+ * 热点商品的所有请求都去抢同一个 key 时，这个 key 所在的 redis 分片就成了瓶颈，加再多节点也没用。分段的做法是把一个逻辑资源
+ * 拆成 N 段，每段是一个独立的 key（不使用 hash tag，集群下分散在不同分片）：
+ * 1，分段锁：按子 key（如用户 id、订单号）哈希到某一段加锁，不同段之间互不影响，吞吐量随分段数增长。同时锁多个分段时按分段号
+ *    从小到大的固定顺序加锁，避免两个请求互相持有对方需要的分段而死锁。等待分段时由释放分段时发布的消息唤醒，不轮询 redis。
+ * 2，分段库存：总库存平均分到 N 段，扣减时先扣子 key 所在的段，该段不够时向相邻的段借，借不够则把已扣的归还。
+ */
+@Slf4j
+@Component
+public class StripedLock {
+
+    private static final String RELEASE_CHANNEL_PREFIX = "stripe:release:";
+
+    /**
+     * 收不到释放通知时的兜底轮询间隔，毫秒
+     */
+    private static final long FALLBACK_POLL_MILLIS = 100;
+
+    @Autowired
+    private DistributedLock2 lock2;
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Value("${distributed.lock.stripes:16}")
+    private int stripes;
+
+    /**
+     * 本 JVM 内等待各个分段的线程
+     */
+    private final LockSignals signals = new LockSignals();
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this::onRelease, new PatternTopic(RELEASE_CHANNEL_PREFIX + "*"));
+    }
+
+    public int stripeOf(String subKey) {
+        return Math.floorMod(subKey.hashCode(), stripes);
+    }
+
+    /**
+     * 子 key 所在分段的锁，由看门狗自动续期
+     */
+    public Boolean lock(String resource, String subKey, String uuid) {
+        return lock2.distributedLock(lockKey(resource, stripeOf(subKey)), uuid);
+    }
+
+    public void unlock(String resource, String subKey, String uuid) {
+        release(lockKey(resource, stripeOf(subKey)), uuid);
+    }
+
+    /**
+     * 同时锁住多个子 key 所在的分段，按分段号从小到大依次加锁，超时则释放已经获取的分段
+     *
+     * @param waitMillis 最长等待时间，毫秒
+     */
+    public boolean lockAll(String resource, Collection<String> subKeys, String uuid, long waitMillis) {
+
+        long end = System.currentTimeMillis() + waitMillis;
+        List<Integer> locked = new ArrayList<>();
+        try {
+            for (int stripe : stripesOf(subKeys)) {
+                String key = lockKey(resource, stripe);
+                if (!Boolean.TRUE.equals(lock2.distributedLock(key, uuid))
+                        && !signals.await(key, end, FALLBACK_POLL_MILLIS,
+                        () -> Boolean.TRUE.equals(lock2.distributedLock(key, uuid)))) {
+                    unlockStripes(resource, locked, uuid);
+                    return false;
+                }
+                locked.add(stripe);
+            }
+            return true;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            unlockStripes(resource, locked, uuid);
+            return false;
+        }
+    }
+
+    public void unlockAll(String resource, Collection<String> subKeys, String uuid) {
+        unlockStripes(resource, new ArrayList<>(stripesOf(subKeys)), uuid);
+    }
+
+    /**
+     * 初始化分段库存，总库存平均分到每一段，余数分给前面的段
+     */
+    public void initStock(String resource, long total) {
+        for (int i = 0; i < stripes; i++) {
+            long stock = total / stripes + (i < total % stripes ? 1 : 0);
+            redisTemplate.opsForValue().set(stockKey(resource, i), String.valueOf(stock));
+        }
+    }
+
+    /**
+     * 扣减库存，先扣子 key 所在的段，不够时依次向后面的段借
+     *
+     * @return 是否扣减成功，失败时不扣减任何库存
+     */
+    public boolean decrementStock(String resource, String subKey, long amount) {
+
+        int home = stripeOf(subKey);
+        long[] taken = new long[stripes];
+        long total = 0;
+        try {
+            for (int i = 0; i < stripes && total < amount; i++) {
+                int stripe = (home + i) % stripes;
+                Long take = scriptRegistry.execute("stockTake", Long.class,
+                        Collections.singletonList(stockKey(resource, stripe)), String.valueOf(amount - total));
+                if (take != null && take > 0) {
+                    taken[stripe] = take;
+                    total += take;
+                }
+            }
+        } catch (Exception e) {
+            log.error("error", e);
+        }
+
+        if (total < amount) {
+            giveBack(resource, taken);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 归还库存（如订单取消），加回子 key 所在的段
+     */
+    public void incrementStock(String resource, String subKey, long amount) {
+        redisTemplate.opsForValue().increment(stockKey(resource, stripeOf(subKey)), amount);
+    }
+
+    public long remainingStock(String resource) {
+        long total = 0;
+        for (int i = 0; i < stripes; i++) {
+            String stock = redisTemplate.opsForValue().get(stockKey(resource, i));
+            total += stock == null ? 0 : Long.parseLong(stock);
+        }
+        return total;
+    }
+
+    private void giveBack(String resource, long[] taken) {
+        for (int stripe = 0; stripe < taken.length; stripe++) {
+            if (taken[stripe] > 0) {
+                redisTemplate.opsForValue().increment(stockKey(resource, stripe), taken[stripe]);
+            }
+        }
+    }
+
+    private void unlockStripes(String resource, List<Integer> locked, String uuid) {
+        // 按加锁的相反顺序释放
+        for (int i = locked.size() - 1; i >= 0; i--) {
+            release(lockKey(resource, locked.get(i)), uuid);
+        }
+    }
+
+    private void release(String key, String uuid) {
+        lock2.distributedUnlock(key, uuid, RELEASE_CHANNEL_PREFIX + key);
+    }
+
+    private void onRelease(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        signals.signal(channel.substring(RELEASE_CHANNEL_PREFIX.length()));
+    }
+
+    private TreeSet<Integer> stripesOf(Collection<String> subKeys) {
+        TreeSet<Integer> ordered = new TreeSet<>();
+        for (String subKey : subKeys) {
+            ordered.add(stripeOf(subKey));
+        }
+        return ordered;
+    }
+
+    private static String lockKey(String resource, int stripe) {
+        return "stripe:" + resource + ":" + stripe;
+    }
+
+    private static String stockKey(String resource, int stripe) {
+        return "stock:" + resource + ":" + stripe;
+    }
+}
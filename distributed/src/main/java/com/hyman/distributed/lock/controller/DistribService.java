@@ -1,7 +1,10 @@
 package com.hyman.distributed.lock.controller;
 
+import com.hyman.distributed.lock.AdaptiveConcurrencyLimiter;
 import com.hyman.distributed.lock.DistributedLock2;
+import com.hyman.distributed.lock.lockconf.AdaptiveLimitAspect;
 import com.hyman.distributed.lock.lockconf.DistriLimitAnno;
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
 import com.hyman.distributed.lock.redisconf.RestTemplateUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,9 +12,11 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -28,6 +33,10 @@ public class DistribService {
     private DistributedLock2 lock2;
     @Autowired
     private RedisTemplate redisTemplate;
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
+    @Autowired
+    private AdaptiveLimitAspect adaptiveLimitAspect;
 
     @PostMapping("/distributedLock")
     @ResponseBody
@@ -89,16 +98,34 @@ public class DistribService {
     }
 
     /**
-     * 将注解写到自定义的 controller 上，limit的大小为10，也就是10秒钟内限制10次访问。
+     * 将注解写到自定义的 controller 上，limit的大小为10，也就是每个用户10秒钟内限制10次访问，所有用户一共限制100次。
      * @param userId
      * @return
      */
     @PostMapping("/distributedLimit")
     @ResponseBody
-    @DistriLimitAnno(limitKey="limit", limit = 10)
+    @DistriLimitAnno(limitKey="limit", limit = 10, key = "#userId", globalLimit = 100)
     public String distributedLimit(String userId) {
 
         log.info(userId);
         return "ok";
     }
+
+    /**
+     * 查看各个 lua 脚本的调用次数、错误次数、重新加载次数和耗时（微秒）
+     */
+    @GetMapping("/scriptStats")
+    @ResponseBody
+    public Map<String, RedisScriptRegistry.ScriptStats> scriptStats() {
+        return scriptRegistry.getStats();
+    }
+
+    /**
+     * 自适应并发限流的指标：当前上限、正在执行的请求数、无负载响应时间、拒绝数等
+     */
+    @GetMapping("/adaptiveLimits")
+    @ResponseBody
+    public Map<String, AdaptiveConcurrencyLimiter> adaptiveLimits() {
+        return adaptiveLimitAspect.getLimiters();
+    }
 }
@@ -0,0 +1,30 @@
+package com.hyman.distributed.lock.lockconf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 自适应并发限流注解，并发上限根据响应时间自动调整（见 AdaptiveConcurrencyLimiter），超过上限的请求立即失败
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AdaptiveLimitAnno {
+
+    /**
+     * 限流器的名字，为空时使用 类名.方法名
+     */
+    String name() default "";
+
+    int initialLimit() default 20;
+
+    int minLimit() default 1;
+
+    int maxLimit() default 200;
+
+    /**
+     * 集群的总并发上限，大于 0 时各节点通过 redis 分摊，每个节点的上限不超过 总上限 × 本节点上限 / 所有节点上限之和
+     */
+    int clusterLimit() default 0;
+}
@@ -0,0 +1,140 @@
+package com.hyman.distributed.lock.lockconf;
+
+import com.hyman.distributed.lock.AdaptiveConcurrencyLimiter;
+import com.hyman.distributed.lock.DistributedLimit;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应并发限流切面，对 @AdaptiveLimitAnno 注解的方法计时，用响应时间调整并发上限，超过上限时抛出 LimitExceededException。
+ *
+ * 限流器只在本 JVM 内，注解配置了集群总上限时，定期通过 DistributedLimit 上报本节点的上限，并按返回的份额限制本节点的上限。
+ */
+@Slf4j
+@Aspect
+@Component
+public class AdaptiveLimitAspect {
+
+    private static final LimitExceededException EXCEEDED = new LimitExceededException("exceeded concurrency limit");
+
+    @Autowired
+    DistributedLimit distributedLimit;
+
+    /**
+     * 同步集群总上限的周期，毫秒
+     */
+    @Value("${distributed.limit.adaptive-sync-millis:1000}")
+    private long syncMillis;
+
+    /**
+     * 方法 -> 限流器
+     */
+    private final ConcurrentHashMap<Method, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * 限流器的名字 -> 限流器，同名的方法共用一个限流器
+     */
+    private final ConcurrentHashMap<String, AdaptiveConcurrencyLimiter> byName = new ConcurrentHashMap<>();
+
+    /**
+     * 需要分摊集群总上限的限流器 -> 集群总上限
+     */
+    private final ConcurrentHashMap<AdaptiveConcurrencyLimiter, Integer> clusterLimits = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "adaptive-limit-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::syncAll, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    @Pointcut("@annotation(com.hyman.distributed.lock.lockconf.AdaptiveLimitAnno)")
+    public void adaptiveLimit() {};
+
+    @Around("adaptiveLimit()")
+    public Object aroundLimit(ProceedingJoinPoint joinPoint) throws Throwable {
+
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        AdaptiveConcurrencyLimiter limiter = limiters.get(method);
+        if (limiter == null) {
+            limiter = limiters.computeIfAbsent(method, this::create);
+        }
+
+        if (!limiter.tryAcquire()) {
+            throw EXCEEDED;
+        }
+
+        long start = System.nanoTime();
+        boolean dropped = true;
+        try {
+            Object result = joinPoint.proceed();
+            dropped = false;
+            return result;
+        } finally {
+            limiter.release(System.nanoTime() - start, dropped);
+        }
+    }
+
+    private AdaptiveConcurrencyLimiter create(Method method) {
+        AdaptiveLimitAnno anno = method.getAnnotation(AdaptiveLimitAnno.class);
+        String name = anno.name().isEmpty() ? method.getDeclaringClass().getName() + "." + method.getName() : anno.name();
+
+        AdaptiveConcurrencyLimiter limiter = byName.computeIfAbsent(name, n -> new AdaptiveConcurrencyLimiter(n,
+                anno.initialLimit(), anno.minLimit(), anno.maxLimit()));
+        if (anno.clusterLimit() > 0) {
+            clusterLimits.put(limiter, anno.clusterLimit());
+        }
+        return limiter;
+    }
+
+    /**
+     * 上报各限流器的当前上限，按返回的份额设置本节点的上限；redis 异常时保持原来的上限
+     */
+    private void syncAll() {
+        clusterLimits.forEach((limiter, clusterLimit) -> {
+            try {
+                long share = distributedLimit.shareLimit(limiter.getName(), ThreadUtils.jvmId(), limiter.getLimit(),
+                        clusterLimit, syncMillis * 3);
+                if (share > 0) {
+                    limiter.setCeiling((int) Math.min(share, Integer.MAX_VALUE));
+                }
+            } catch (Exception e) {
+                log.error("error", e);
+            }
+        });
+    }
+
+    /**
+     * 所有限流器，名字 -> 限流器，用于输出当前上限等指标
+     */
+    public Map<String, AdaptiveConcurrencyLimiter> getLimiters() {
+        return Collections.unmodifiableMap(byName);
+    }
+}
@@ -4,9 +4,10 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
 
 /**
- * 自定义 limit 注解，限流注解，并且设置注解的key和限流的大小
+ * 自定义 limit 注解，限流注解，并且设置注解的key和限流的大小，以及滑动窗口的大小（默认 10 秒）
  */
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
@@ -14,5 +15,41 @@ public @interface DistriLimitAnno {
 
     String limitKey() default "limit";
 
+    /**
+     * 按调用方区分的 key（SpEL 表达式，如 #userId），为空时所有调用方共用 limitKey 一个限流器；
+     * 不为空时每个调用方一个限流器，key 为 limitKey:表达式的值。表达式的写法见 LimitKeyResolver
+     */
+    String key() default "";
+
+    /**
+     * 按调用方限流（设置了 key）时，limitKey 的全局限制，大于 0 时同一个窗口内同时检查调用方的限制和全局的限制，
+     * 一次网络往返，两个都通过才放行。只支持滑动窗口限流，同时设置 burst、cost 或 hybrid 时第一次调用抛出 IllegalArgumentException
+     */
+    long globalLimit() default 0;
+
     int limit() default 1;
+
+    /**
+     * 滑动窗口的大小，窗口内最多 limit 次
+     */
+    long window() default 10;
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * 大于 0 时使用令牌桶限流（GCRA）：每个窗口产生 limit 个令牌，最多积攒 burst 个；被限流时响应 Retry-After 头。
+     * 为 0 时使用滑动窗口限流。
+     */
+    long burst() default 0;
+
+    /**
+     * 令牌桶限流时每次请求消耗的令牌数
+     */
+    long cost() default 1;
+
+    /**
+     * 令牌桶限流时是否使用本地预取令牌的混合限流（见 HybridLimiter），绝大多数请求不访问 redis，但全局限制有一定误差，
+     * 也不返回 Retry-After；只支持 cost 为 1
+     */
+    boolean hybrid() default false;
 }
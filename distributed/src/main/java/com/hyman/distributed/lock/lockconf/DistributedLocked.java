@@ -0,0 +1,29 @@
+package com.hyman.distributed.lock.lockconf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 在分布式锁内执行方法，锁由 RoutingLockProvider 按锁名选择后端，获取不到时抛出 LockNotAcquiredException
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface DistributedLocked {
+
+    /**
+     * 锁名（SpEL 表达式，如 'order:' + #orderId），表达式的写法见 LimitKeyResolver
+     */
+    String key();
+
+    /**
+     * 最长等待时间，毫秒，默认不等待
+     */
+    long waitMillis() default 0;
+
+    /**
+     * 最长持有时间，毫秒，大于 0 时到期自动释放，默认一直持有到方法返回
+     */
+    long leaseMillis() default 0;
+}
@@ -0,0 +1,54 @@
+package com.hyman.distributed.lock.lockconf;
+
+import com.hyman.distributed.lock.DistributedLockProvider;
+import com.hyman.distributed.lock.LockLease;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+
+/**
+ * @DistributedLocked 切面
+ */
+@Slf4j
+@Aspect
+@Component
+public class DistributedLockedAspect {
+
+    @Autowired
+    private DistributedLockProvider lockProvider;
+
+    @Autowired
+    private LimitKeyResolver keyResolver;
+
+    @Pointcut("@annotation(com.hyman.distributed.lock.lockconf.DistributedLocked)")
+    public void distributedLocked() {};
+
+    @Around("distributedLocked()")
+    public Object aroundLock(ProceedingJoinPoint joinPoint) throws Throwable {
+
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        DistributedLocked anno = method.getAnnotation(DistributedLocked.class);
+        String name = keyResolver.resolve(method, anno.key(), joinPoint.getArgs());
+
+        LockLease lease = anno.leaseMillis() > 0
+                ? lockProvider.tryLock(name, anno.waitMillis(), anno.leaseMillis())
+                : lockProvider.tryLock(name, anno.waitMillis());
+        if (lease == null) {
+            // 锁名可能包含用户 id 等参数，不返回给调用方
+            log.debug("获取不到锁：{}", name);
+            throw new LockNotAcquiredException("lock busy");
+        }
+        try {
+            return joinPoint.proceed();
+        } finally {
+            lease.release();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.hyman.distributed.lock.lockconf;
+
+/**
+ * @DistriLimitAnno、@DistributedLocked 的 key 表达式结果为空（如请求中没有用户信息）时的异常，由 UnifiedErrorHandler 统一处理。
+ *
+ * 不能把空值当作字符串 "null" 继续使用：所有取不到 key 的调用方会共用同一个限流器、同一把锁，互相影响。
+ */
+public class KeyNotResolvedException extends RuntimeException {
+
+    public KeyNotResolvedException(String message) {
+        super(message);
+    }
+}
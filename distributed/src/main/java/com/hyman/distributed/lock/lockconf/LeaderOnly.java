@@ -0,0 +1,25 @@
+package com.hyman.distributed.lock.lockconf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 只在 leader 节点上执行的方法（如 @Scheduled 定时任务），其他节点直接跳过、返回 null。
+ * 每个节点加入一次选举并保持，不需要每次执行都抢锁，也不会因为各节点时钟、执行时间不同而重复执行。
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface LeaderOnly {
+
+    /**
+     * 选举的组名，为空时使用 类名.方法名，同一组的方法在同一个节点上执行
+     */
+    String value() default "";
+
+    /**
+     * 使用的 DistributedLockProvider 的 bean 名字，为空时配置了 zookeeper 使用 zkLockProvider，否则使用 redisLockProvider
+     */
+    String provider() default "";
+}
@@ -0,0 +1,63 @@
+package com.hyman.distributed.lock.lockconf;
+
+import com.hyman.distributed.lock.DistributedLockProvider;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @LeaderOnly 切面，本节点不是 leader 时跳过方法的执行
+ */
+@Slf4j
+@Aspect
+@Component
+public class LeaderOnlyAspect {
+
+    @Autowired
+    private BeanFactory beanFactory;
+
+    /**
+     * 方法 -> 选举的组名
+     */
+    private final ConcurrentHashMap<Method, String> names = new ConcurrentHashMap<>();
+
+    /**
+     * 方法 -> 使用的 provider
+     */
+    private final ConcurrentHashMap<Method, DistributedLockProvider> providers = new ConcurrentHashMap<>();
+
+    @Pointcut("@annotation(com.hyman.distributed.lock.lockconf.LeaderOnly)")
+    public void leaderOnly() {};
+
+    @Around("leaderOnly()")
+    public Object aroundLeader(ProceedingJoinPoint joinPoint) throws Throwable {
+
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        LeaderOnly anno = method.getAnnotation(LeaderOnly.class);
+        String name = names.computeIfAbsent(method, m -> anno.value().isEmpty()
+                ? m.getDeclaringClass().getName() + "." + m.getName() : anno.value());
+        DistributedLockProvider provider = providers.computeIfAbsent(method, m -> provider(anno.provider()));
+
+        if (!provider.isLeader(name)) {
+            log.debug("不是 {} 的 leader，跳过", name);
+            return null;
+        }
+        return joinPoint.proceed();
+    }
+
+    private DistributedLockProvider provider(String beanName) {
+        if (beanName.isEmpty()) {
+            beanName = beanFactory.containsBean("zkLockProvider") ? "zkLockProvider" : "redisLockProvider";
+        }
+        return beanFactory.getBean(beanName, DistributedLockProvider.class);
+    }
+}
@@ -1,6 +1,8 @@
 package com.hyman.distributed.lock.lockconf;
 
 import com.hyman.distributed.lock.DistributedLimit;
+import com.hyman.distributed.lock.HybridLimiter;
+import com.hyman.distributed.lock.LimitSpec;
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Before;
@@ -9,41 +11,108 @@ import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
+import javax.servlet.http.HttpServletResponse;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 对注解进行切面，在切面中判断是否超过limit，如果超过limit的时候就需要抛出异常exceeded limit，否则正常执行。
+ *
+ * 每个方法第一次调用时读取注解，生成限流描述（LimiterSpec）并缓存，key 固定的限流器连脚本参数都预先序列化好，之后每次调用
+ * 不再反射读取注解、转换参数。注意不要在切点中用 @annotation(参数) 绑定注解，那是运行时动态匹配，每次调用都要反射查找注解。
  */
 @Aspect
 @Component
 @EnableAspectJAutoProxy(proxyTargetClass = true)
 public class LimitAspect {
 
+    /**
+     * 被限流时抛出的异常，没有异常栈、不可修改，所有请求共用一个，被限流时不分配对象
+     */
+    private static final LimitExceededException EXCEEDED = new LimitExceededException("exceeded limit");
 
     @Autowired
     DistributedLimit distributedLimit;
 
-    @Pointcut("@annotation(com.hqs.distributedlock.annotation.DistriLimitAnno)")
+    @Autowired
+    HybridLimiter hybridLimiter;
+
+    @Autowired
+    LimitKeyResolver limitKeyResolver;
+
+    /**
+     * 方法 -> 限流描述
+     */
+    private final ConcurrentHashMap<Method, LimiterSpec> specs = new ConcurrentHashMap<>();
+
+    @Pointcut("@annotation(com.hyman.distributed.lock.lockconf.DistriLimitAnno)")
     public void limit() {};
 
     @Before("limit()")
     public void beforeLimit(JoinPoint joinPoint) throws Exception {
 
-        MethodSignature signature = (MethodSignature) joinPoint.getSignature();
-        Method method = signature.getMethod();
-        DistriLimitAnno distriLimitAnno = method.getAnnotation(DistriLimitAnno.class);
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        LimiterSpec spec = specs.get(method);
+        if (spec == null) {
+            spec = specs.computeIfAbsent(method,
+                    m -> LimiterSpec.of(m.getAnnotation(DistriLimitAnno.class), distributedLimit));
+        }
+
+        String key = spec.keyExpression == null ? spec.limitKey
+                : spec.limitKey + ":" + limitKeyResolver.resolve(method, spec.keyExpression, joinPoint.getArgs());
 
-        String key = distriLimitAnno.limitKey();
-        int limit = distriLimitAnno.limit();
-        Boolean exceededLimit = distributedLimit.distributedLimit(key, String.valueOf(limit));
+        boolean allowed;
+        switch (spec.mode) {
+            case COMPOSITE:
+                allowed = distributedLimit.checkAll(Arrays.asList(
+                        LimitSpec.of(key, spec.limit, spec.window, spec.unit), spec.globalSpec));
+                break;
+            case HYBRID:
+                allowed = hybridLimiter.tryAcquire(key, spec.limit, spec.window, spec.unit, spec.burst);
+                break;
+            case RATE:
+                allowed = rateLimit(spec.prepared != null ? spec.prepared
+                        : distributedLimit.prepareRateLimit(key, spec.limit, spec.window, spec.unit, spec.burst,
+                        spec.cost));
+                break;
+            default:
+                allowed = distributedLimit.distributedLimit(spec.prepared != null ? spec.prepared
+                        : distributedLimit.prepareLimit(key, spec.limit, spec.window, spec.unit));
+        }
 
         /**
          * 如果已经限流了
          */
-        if(!exceededLimit) {
-            throw new RuntimeException("exceeded limit");
+        if(!allowed) {
+            throw EXCEEDED;
         }
     }
 
+    /**
+     * 令牌桶限流，在响应头中返回剩余令牌数，被限流时返回 Retry-After（秒）
+     */
+    private boolean rateLimit(DistributedLimit.PreparedLimit prepared) {
+
+        DistributedLimit.RateLimitResult result = distributedLimit.rateLimit(prepared);
+
+        HttpServletResponse response = currentResponse();
+        if (response != null) {
+            response.setHeader("X-RateLimit-Remaining", String.valueOf(result.getRemaining()));
+            if (result.getRetryAfterMillis() > 0) {
+                response.setHeader("Retry-After", String.valueOf((result.getRetryAfterMillis() + 999) / 1000));
+            }
+        }
+
+        return result.isAllowed();
+    }
+
+    private static HttpServletResponse currentResponse() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes instanceof ServletRequestAttributes ? ((ServletRequestAttributes) attributes).getResponse() : null;
+    }
 }
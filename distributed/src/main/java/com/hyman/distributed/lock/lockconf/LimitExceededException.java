@@ -0,0 +1,14 @@
+package com.hyman.distributed.lock.lockconf;
+
+/**
+ * 被限流时快速失败的异常
+ *
+ * 限流拒绝的请求可能非常多，所以不填充异常栈（填充异常栈是创建异常最耗时的部分），也不能添加 suppressed 异常，可以作为
+ * 常量重复抛出，由 UnifiedErrorHandler 统一处理。
+ */
+public class LimitExceededException extends RuntimeException {
+
+    public LimitExceededException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,59 @@
+package com.hyman.distributed.lock.lockconf;
+
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 解析 @DistriLimitAnno、@DistributedLocked 的 key 表达式（SpEL），得到按调用方区分的限流 key、锁名
+ *
+ * 表达式中可以使用方法参数（#参数名，如 #userId）和当前请求（#request），如 JWT 中的用户：
+ * #request.getAttribute('tokenData')['id']（tokenData 由 TokenInterceptor 放入请求属性）。
+ * 每个表达式只解析一次，之后从缓存中取。表达式的结果为 null 或者空字符串时拒绝本次调用，见 KeyNotResolvedException。
+ */
+@Component
+public class LimitKeyResolver {
+
+    private final SpelExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    /**
+     * key 表达式 -> 解析后的表达式，同一个方法上可能有多个注解的表达式
+     */
+    private final ConcurrentHashMap<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    /**
+     * 计算按调用方区分的 key
+     *
+     * @param method     注解所在的方法
+     * @param expression key 表达式
+     * @param args       本次调用的参数
+     * @throws KeyNotResolvedException 表达式的结果为 null 或者空字符串
+     */
+    public String resolve(Method method, String expression, Object[] args) {
+
+        Expression parsed = expressions.computeIfAbsent(expression, parser::parseExpression);
+
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(null, method, args,
+                parameterNameDiscoverer);
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes) {
+            context.setVariable("request", ((ServletRequestAttributes) attributes).getRequest());
+        }
+        Object value = parsed.getValue(context);
+        if (value == null || value.toString().isEmpty()) {
+            throw new KeyNotResolvedException("key 表达式的结果为空：" + expression);
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.hyman.distributed.lock.lockconf;
+
+import com.hyman.distributed.lock.DistributedLimit;
+import com.hyman.distributed.lock.LimitSpec;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个限流方法预先计算好的限流描述：从 @DistriLimitAnno 读出的配置、限流方式，以及 key 固定时预先序列化好的脚本参数。
+ * 每个方法只创建一次，之后切面每次调用都直接使用，不再反射读取注解、转换参数。
+ */
+final class LimiterSpec {
+
+    enum Mode {
+        /**
+         * 滑动窗口
+         */
+        SLIDING_WINDOW,
+        /**
+         * 令牌桶（GCRA），响应 Retry-After
+         */
+        RATE,
+        /**
+         * 本地预取令牌的令牌桶
+         */
+        HYBRID,
+        /**
+         * 按调用方的滑动窗口，加上全局的滑动窗口
+         */
+        COMPOSITE
+    }
+
+    final Mode mode;
+    final String limitKey;
+
+    /**
+     * 按调用方区分的 key 表达式，为 null 时 key 固定为 limitKey
+     */
+    final String keyExpression;
+
+    final long limit;
+    final long window;
+    final TimeUnit unit;
+    final long burst;
+    final long cost;
+    final long globalLimit;
+
+    /**
+     * key 固定时预先准备好的限流器，否则为 null
+     */
+    final DistributedLimit.PreparedLimit prepared;
+
+    /**
+     * 组合限流时的全局限流器，创建一次重复使用
+     */
+    final LimitSpec globalSpec;
+
+    private LimiterSpec(DistriLimitAnno anno, DistributedLimit distributedLimit) {
+        this.limitKey = anno.limitKey();
+        this.keyExpression = anno.key().isEmpty() ? null : anno.key();
+        this.limit = anno.limit();
+        this.window = anno.window();
+        this.unit = anno.unit();
+        this.burst = anno.burst();
+        this.cost = anno.cost();
+        this.globalLimit = anno.globalLimit();
+        this.globalSpec = LimitSpec.of(limitKey, globalLimit, window, unit);
+
+        if (keyExpression != null && globalLimit > 0) {
+            this.mode = Mode.COMPOSITE;
+        } else if (burst > 0) {
+            this.mode = anno.hybrid() ? Mode.HYBRID : Mode.RATE;
+        } else {
+            this.mode = Mode.SLIDING_WINDOW;
+        }
+
+        if (mode == Mode.COMPOSITE && (burst > 0 || cost != 1 || anno.hybrid())) {
+            // 组合限流只支持滑动窗口，令牌桶的参数会被忽略，不能悄悄换成另一种限流方式
+            throw new IllegalArgumentException("按调用方区分 key 并且配置了 globalLimit 时不支持 burst、cost、hybrid："
+                    + limitKey);
+        }
+        if (mode == Mode.RATE && cost <= 0) {
+            // key 固定时 prepareRateLimit 也会检查，这里让按调用方区分 key 的方法同样在启动后第一次调用时就报错
+            throw new IllegalArgumentException("消耗的令牌数必须大于 0：" + limitKey + "，cost=" + cost);
+        }
+        if (keyExpression != null) {
+            this.prepared = null;
+        } else if (mode == Mode.RATE) {
+            this.prepared = distributedLimit.prepareRateLimit(limitKey, limit, window, unit, burst, cost);
+        } else if (mode == Mode.SLIDING_WINDOW) {
+            this.prepared = distributedLimit.prepareLimit(limitKey, limit, window, unit);
+        } else {
+            this.prepared = null;
+        }
+    }
+
+    static LimiterSpec of(DistriLimitAnno anno, DistributedLimit distributedLimit) {
+        return new LimiterSpec(anno, distributedLimit);
+    }
+}
@@ -0,0 +1,11 @@
+package com.hyman.distributed.lock.lockconf;
+
+/**
+ * @DistributedLocked 获取不到锁时的异常，由 UnifiedErrorHandler 统一处理。与 LimitExceededException 一样不填充异常栈。
+ */
+public class LockNotAcquiredException extends RuntimeException {
+
+    public LockNotAcquiredException(String message) {
+        super(message, null, false, false);
+    }
+}
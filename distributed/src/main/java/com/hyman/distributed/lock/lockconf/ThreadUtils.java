@@ -1,25 +1,22 @@
 package com.hyman.distributed.lock.lockconf;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.UUID;
 
+/**
+ * 锁持有者标识。
+ * 持有者 = JVM 标识 + 线程 id，同一个 JVM 内的同一个线程多次获取时标识相同，用于实现可重入锁；不同 JVM 之间的线程 id 可能重复，
+ * 所以需要加上启动时随机生成的 JVM 标识加以区分。
+ */
 public class ThreadUtils {
 
-    private static ThreadLocal<String> threadLocal = new ThreadLocal<>();
-    private Map<String, ThreadLocal> threadLocalMap = new HashMap<>();
+    private static final String JVM_ID = UUID.randomUUID().toString();
 
-    public static void setLockkey(String lockKey) {
-        threadLocal.set(lockKey);
+    public static String jvmId() {
+        return JVM_ID;
     }
 
-    public static String getlockKey(String lockKey) {
-        Object o = threadLocal.get();
-        if(o == null){
-            return null;
-        }else if(lockKey.equals(o)) {
-            return "1";
-        }
-        return null;
+    public static String ownerId() {
+        return JVM_ID + ":" + Thread.currentThread().getId();
     }
 
 }
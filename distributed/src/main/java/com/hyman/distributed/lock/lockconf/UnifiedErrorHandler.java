@@ -19,6 +19,48 @@ public class UnifiedErrorHandler {
 
     private static Map<String, String> res = new HashMap<>(2);
 
+    /**
+     * 被限流快速失败，返回 503，调用方可以稍后重试或者转到其他节点
+     */
+    @ExceptionHandler(value = LimitExceededException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ResponseBody
+    public Object processLimitExceeded(HttpServletRequest req, LimitExceededException e) {
+
+        Map<String, String> limited = new HashMap<>(2);
+        limited.put("url", req.getRequestURL().toString());
+        limited.put("mess", e.getMessage());
+        return limited;
+    }
+
+    /**
+     * 获取不到 @DistributedLocked 的锁（同一个资源正在被处理），返回 409，调用方可以稍后重试
+     */
+    @ExceptionHandler(value = LockNotAcquiredException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    @ResponseBody
+    public Object processLockNotAcquired(HttpServletRequest req, LockNotAcquiredException e) {
+
+        Map<String, String> locked = new HashMap<>(2);
+        locked.put("url", req.getRequestURL().toString());
+        locked.put("mess", e.getMessage());
+        return locked;
+    }
+
+    /**
+     * 限流、锁的 key 表达式取不到值（如缺少用户信息），返回 400
+     */
+    @ExceptionHandler(value = KeyNotResolvedException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ResponseBody
+    public Object processKeyNotResolved(HttpServletRequest req, KeyNotResolvedException e) {
+
+        Map<String, String> invalid = new HashMap<>(2);
+        invalid.put("url", req.getRequestURL().toString());
+        invalid.put("mess", e.getMessage());
+        return invalid;
+    }
+
     @ExceptionHandler(value = Exception.class)
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
@@ -3,11 +3,7 @@ package com.hyman.distributed.lock.redisconf;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.data.redis.core.script.RedisScript;
-import org.springframework.scripting.ScriptSource;
-import org.springframework.scripting.support.ResourceScriptSource;
+import org.springframework.data.redis.core.RedisTemplate;
 
 @Slf4j
 @Configuration
@@ -18,59 +14,14 @@ public class BeanConfiguration {
      * the script returns a throw-away status (specifically, OK).
      *
      * 脚本定义的地方需要注意，返回的结果集一定是Long, Boolean，List, 一个反序列化的值。
+     *
+     * 所有 /scripts 下的 lua 脚本统一由注册表管理，启动时预加载，之后按脚本名通过 EVALSHA 调用，不再为每个脚本单独定义
+     * RedisScript。
      * @return
      */
     @Bean
-    public RedisScript<Long> limitScript() {
-
-        RedisScript redisScript = null;
-        try {
-            ScriptSource scriptSource = new ResourceScriptSource(new ClassPathResource("/scripts/limit.lua"));
-            log.info("script:{}", scriptSource.getScriptAsString());
-
-            redisScript = RedisScript.of(scriptSource.getScriptAsString(), Long.class);
-
-        } catch (Exception e) {
-            log.error("error", e);
-        }
-        return redisScript;
-    }
-
-    @Bean
-    public RedisScript<Boolean> lockScript() {
-
-        RedisScript<Boolean> redisScript = null;
-        try {
-            ScriptSource scriptSource = new ResourceScriptSource(new ClassPathResource("/scripts/lock.lua"));
-            redisScript = RedisScript.of(scriptSource.getScriptAsString(), Boolean.class);
-
-        } catch (Exception e) {
-            log.error("error" , e);
-        }
-        return redisScript;
-    }
-
-    @Bean
-    public RedisScript<Long> unlockScript() {
-
-        RedisScript<Long> redisScript = null;
-        try {
-            ScriptSource scriptSource = new ResourceScriptSource(new ClassPathResource("/scripts/unlock.lua"));
-            redisScript = RedisScript.of(scriptSource.getScriptAsString(), Long.class);
-
-        } catch (Exception e) {
-            log.error("error" , e);
-        }
-        return redisScript;
-    }
-
-    @Bean
-    public RedisScript<Long> limitAnother() {
-
-        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
-        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("/scripts/limit.lua")));
-        redisScript.setResultType(Long.class);
-        return redisScript;
+    public RedisScriptRegistry redisScriptRegistry(RedisTemplate<String, String> redisTemplate) {
+        return new RedisScriptRegistry(RedisScriptRegistry.DEFAULT_LOCATION, redisTemplate);
     }
 
 }
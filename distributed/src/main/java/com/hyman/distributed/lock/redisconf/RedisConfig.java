@@ -1,19 +1,27 @@
 package com.hyman.distributed.lock.redisconf;
 
+import com.hyman.distributed.lock.RedLock;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisClientConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
 import javax.annotation.Resource;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 @Slf4j
 @Configuration
@@ -59,6 +67,39 @@ public class RedisConfig {
         return jedisConnectionFactory;
     }
 
+    /**
+     * redis 发布订阅的监听容器，所有监听共用一个订阅连接
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        return container;
+    }
+
+    /**
+     * RedLock 使用的相互独立的 redis 节点，配置了 distributed.lock.redlock.nodes 才启用。
+     * 每个节点单独一个连接池，连接和读写超时即单个节点的加锁超时，一个节点宕机不会拖慢整个加锁过程。
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "distributed.lock.redlock", name = "nodes")
+    public RedLock redLock(@Value("${distributed.lock.redlock.nodes}") String[] nodes,
+                           @Value("${distributed.lock.redlock.password:}") String nodePassword,
+                           @Value("${distributed.lock.redlock.timeout-millis:50}") int nodeTimeout,
+                           RedisScriptRegistry scriptRegistry) {
+        List<JedisPool> pools = new ArrayList<>(nodes.length);
+        for (String node : nodes) {
+            HostAndPort hostAndPort = HostAndPort.parseString(node.trim());
+            JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
+            jedisPoolConfig.setMaxIdle(maxIdle);
+            jedisPoolConfig.setMaxWaitMillis(nodeTimeout);
+            pools.add(new JedisPool(jedisPoolConfig, hostAndPort.getHost(), hostAndPort.getPort(), nodeTimeout,
+                    nodePassword.isEmpty() ? null : nodePassword));
+        }
+        log.info("RedLock init successful，nodes -> {}", Arrays.toString(nodes));
+        return new RedLock(pools, scriptRegistry, nodeTimeout);
+    }
+
     @Bean(name = "redisStandaloneConfiguration")
     public RedisStandaloneConfiguration configuration() {
         RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration();
@@ -0,0 +1,371 @@
+package com.hyman.distributed.lock.redisconf;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DigestUtils;
+import org.springframework.util.StreamUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * lua 脚本注册表：
+ * 启动时读取 /scripts 下所有的 lua 脚本，计算 sha1 并通过 SCRIPT LOAD 预加载到 redis，之后所有调用都只发送 sha1（EVALSHA），不再
+ * 每次发送整个脚本内容，redis 也不需要每次重新解析脚本。
+ *
+ * redis 重启或者主从切换后脚本缓存会丢失，此时 EVALSHA 返回 NOSCRIPT 错误，注册表会重新加载全部脚本后重试，对调用方透明。
+ * 同时按脚本统计调用次数、错误次数、重新加载次数和耗时，通过 {@link #getStats()} 查看。
+ *
+ * 脚本名为文件名去掉 .lua 后缀，如 /scripts/lock.lua 的脚本名为 lock。
+ */
+@Slf4j
+public class RedisScriptRegistry {
+
+    public static final String DEFAULT_LOCATION = "classpath:/scripts/*.lua";
+
+    private final Map<String, Script> scripts;
+
+    /**
+     * 为 null 时只能通过 jedis 调用
+     */
+    private final RedisTemplate<String, String> redisTemplate;
+
+    /**
+     * 连接不支持在 pipeline 中执行脚本，第一次失败后不再尝试
+     */
+    private volatile boolean pipelineUnsupported;
+
+    public RedisScriptRegistry(String location) {
+        this(location, null);
+    }
+
+    public RedisScriptRegistry(String location, RedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+
+        Map<String, Script> loaded = new LinkedHashMap<>();
+        try {
+            for (Resource resource : new PathMatchingResourcePatternResolver().getResources(location)) {
+                String name = resource.getFilename().replaceAll("\\.lua$", "");
+                String body = StreamUtils.copyToString(resource.getInputStream(), StandardCharsets.UTF_8);
+                loaded.put(name, new Script(body));
+                log.info("script:{} - sha1:{}", name, loaded.get(name).sha1);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取 lua 脚本失败：" + location, e);
+        }
+        this.scripts = Collections.unmodifiableMap(loaded);
+    }
+
+    /**
+     * 启动时预加载所有脚本，redis 不可用时只记录日志，第一次调用时再加载
+     */
+    @PostConstruct
+    public void preload() {
+        if (redisTemplate == null) {
+            return;
+        }
+        try {
+            redisTemplate.execute((RedisCallback<Void>) connection -> {
+                loadAll(connection);
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("预加载 lua 脚本失败", e);
+        }
+    }
+
+    /**
+     * 通过 RedisTemplate 的连接执行脚本
+     *
+     * @param name       脚本名
+     * @param resultType 返回值类型，Long、Boolean、List 或者 String
+     * @param keys       脚本的 KEYS
+     * @param args       脚本的 ARGV
+     */
+    public <T> T execute(String name, Class<T> resultType, List<String> keys, Object... args) {
+        return execute(name, resultType, keys.size(), keysAndArgs(keys, args));
+    }
+
+    /**
+     * 使用已经序列化好的 KEYS 和 ARGV 执行脚本，供调用频繁、参数大多固定的场景预先序列化，避免每次调用都转换
+     *
+     * @param numKeys     keysAndArgs 中前多少个是 KEYS
+     * @param keysAndArgs KEYS 和 ARGV，UTF-8 编码
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String name, Class<T> resultType, int numKeys, byte[]... keysAndArgs) {
+
+        Script script = script(name);
+        ReturnType returnType = ReturnType.fromJavaType(resultType);
+
+        long start = System.nanoTime();
+        try {
+            Object result = redisTemplate.execute((RedisCallback<Object>) connection -> {
+                try {
+                    return connection.evalSha(script.sha1, returnType, numKeys, keysAndArgs);
+                } catch (Exception e) {
+                    if (!isNoScript(e)) {
+                        throw e;
+                    }
+                    script.stats.reloads.increment();
+                    loadAll(connection);
+                    return connection.evalSha(script.sha1, returnType, numKeys, keysAndArgs);
+                }
+            });
+            return (T) deserialize(result);
+
+        } catch (RuntimeException e) {
+            script.stats.errors.increment();
+            throw e;
+        } finally {
+            script.stats.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 在一次网络往返中批量执行同一个脚本（pipeline），返回每次调用的结果。
+     * 连接不支持在 pipeline 中执行脚本时（spring-data-redis 2.2 的 jedis 连接），改为在同一个连接上逐个执行。
+     *
+     * @param keys 每次调用的 KEYS
+     * @param args 每次调用的 ARGV，与 keys 一一对应
+     */
+    public List<Object> executePipelined(String name, Class<?> resultType, List<List<String>> keys, List<Object[]> args) {
+
+        Script script = script(name);
+        ReturnType returnType = ReturnType.fromJavaType(resultType);
+        RedisCallback<Object> pipeline = connection -> {
+            for (int i = 0; i < keys.size(); i++) {
+                connection.evalSha(script.sha1, returnType, keys.get(i).size(), keysAndArgs(keys.get(i), args.get(i)));
+            }
+            return null;
+        };
+
+        long start = System.nanoTime();
+        try {
+            List<Object> results;
+            if (pipelineUnsupported) {
+                results = executeEach(script, returnType, keys, args);
+            } else {
+                try {
+                    results = redisTemplate.executePipelined(pipeline);
+                } catch (UnsupportedOperationException e) {
+                    pipelineUnsupported = true;
+                    log.warn("redis 连接不支持在 pipeline 中执行脚本，改为逐个执行");
+                    results = executeEach(script, returnType, keys, args);
+                } catch (Exception e) {
+                    if (!isNoScript(e)) {
+                        throw e;
+                    }
+                    // 脚本不存在时所有调用都不会执行，加载后整批重试
+                    script.stats.reloads.increment();
+                    redisTemplate.execute((RedisCallback<Void>) connection -> {
+                        loadAll(connection);
+                        return null;
+                    });
+                    results = redisTemplate.executePipelined(pipeline);
+                }
+            }
+            List<Object> deserialized = new ArrayList<>(results.size());
+            for (Object result : results) {
+                deserialized.add(deserialize(result));
+            }
+            return deserialized;
+
+        } catch (RuntimeException e) {
+            script.stats.errors.increment();
+            throw e;
+        } finally {
+            script.stats.record(System.nanoTime() - start, keys.size());
+        }
+    }
+
+    /**
+     * 在同一个连接上逐个执行，脚本不存在时加载后重试
+     */
+    private List<Object> executeEach(Script script, ReturnType returnType, List<List<String>> keys,
+                                     List<Object[]> args) {
+        return redisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+            List<Object> results = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                byte[][] keysAndArgs = keysAndArgs(keys.get(i), args.get(i));
+                try {
+                    results.add(connection.evalSha(script.sha1, returnType, keys.get(i).size(), keysAndArgs));
+                } catch (Exception e) {
+                    if (!isNoScript(e)) {
+                        throw e;
+                    }
+                    script.stats.reloads.increment();
+                    loadAll(connection);
+                    results.add(connection.evalSha(script.sha1, returnType, keys.get(i).size(), keysAndArgs));
+                }
+            }
+            return results;
+        });
+    }
+
+    /**
+     * 通过 jedis 连接执行脚本，用于直接使用 JedisPool 的场景
+     */
+    public Object execute(Jedis jedis, String name, List<String> keys, List<String> args) {
+
+        Script script = script(name);
+        long start = System.nanoTime();
+        try {
+            try {
+                return jedis.evalsha(script.sha1, keys, args);
+            } catch (JedisNoScriptException e) {
+                script.stats.reloads.increment();
+                for (Map.Entry<String, Script> each : scripts.entrySet()) {
+                    load(each.getKey(), () -> jedis.scriptLoad(each.getValue().body));
+                }
+                return jedis.evalsha(script.sha1, keys, args);
+            }
+        } catch (RuntimeException e) {
+            script.stats.errors.increment();
+            throw e;
+        } finally {
+            script.stats.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 脚本名 -> 调用统计
+     */
+    public Map<String, ScriptStats> getStats() {
+        Map<String, ScriptStats> stats = new LinkedHashMap<>();
+        scripts.forEach((name, script) -> stats.put(name, script.stats));
+        return stats;
+    }
+
+    private Script script(String name) {
+        Script script = scripts.get(name);
+        if (script == null) {
+            throw new IllegalArgumentException("lua 脚本不存在：" + name);
+        }
+        return script;
+    }
+
+    private void loadAll(RedisConnection connection) {
+        for (Map.Entry<String, Script> each : scripts.entrySet()) {
+            load(each.getKey(), () -> connection.scriptLoad(each.getValue().body.getBytes(StandardCharsets.UTF_8)));
+        }
+        log.info("已加载 lua 脚本：{}", scripts.keySet());
+    }
+
+    /**
+     * 逐个加载，某个脚本编译失败只影响它自己的调用，不影响其他脚本
+     */
+    private static void load(String name, Runnable scriptLoad) {
+        try {
+            scriptLoad.run();
+        } catch (RuntimeException e) {
+            log.error("加载 lua 脚本失败：" + name, e);
+        }
+    }
+
+    private static byte[][] keysAndArgs(List<String> keys, Object[] args) {
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        int i = 0;
+        for (String key : keys) {
+            keysAndArgs[i++] = key.getBytes(StandardCharsets.UTF_8);
+        }
+        for (Object arg : args) {
+            keysAndArgs[i++] = String.valueOf(arg).getBytes(StandardCharsets.UTF_8);
+        }
+        return keysAndArgs;
+    }
+
+    private static Object deserialize(Object result) {
+        if (result instanceof byte[]) {
+            return new String((byte[]) result, StandardCharsets.UTF_8);
+        }
+        if (result instanceof List) {
+            List<Object> list = new ArrayList<>();
+            for (Object each : (List<?>) result) {
+                list.add(deserialize(each));
+            }
+            return list;
+        }
+        return result;
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof JedisNoScriptException || (t.getMessage() != null && t.getMessage().contains("NOSCRIPT"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Script {
+
+        private final String body;
+        private final String sha1;
+        private final ScriptStats stats = new ScriptStats();
+
+        Script(String body) {
+            this.body = body;
+            this.sha1 = DigestUtils.sha1DigestAsHex(body);
+        }
+    }
+
+    /**
+     * 单个脚本的调用统计，pipeline 批量调用按实际调用次数计数
+     */
+    public static final class ScriptStats {
+
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder reloads = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        void record(long nanos) {
+            record(nanos, 1);
+        }
+
+        void record(long nanos, int count) {
+            calls.add(count);
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getReloads() {
+            return reloads.sum();
+        }
+
+        public long getAvgMicros() {
+            long count = calls.sum();
+            return count == 0 ? 0 : totalNanos.sum() / count / 1000;
+        }
+
+        public long getMaxMicros() {
+            return maxNanos.get() / 1000;
+        }
+    }
+}
@@ -58,6 +58,8 @@ import org.springframework.stereotype.Service;
  * zookeeper实现分布式锁的原理就是多个节点同时在一个指定的节点下面创建临时会话顺序节点，谁创建的节点序号最小，谁就获得了锁，并且其他节点就会监听序号比自己小的节点，一旦序号比自己小
  * 的节点被删除了，其他节点就会得到相应的事件，然后查看自己是否为序号最小的节点，如果是，则获取锁。
  * 这里推荐一个Apache的开源库Curator，它是一个ZooKeeper客户端，Curator提供的InterProcessMutex是分布式锁的实现，acquire方法用于获取锁，release方法用于释放锁。
+ *
+ * 本类只是演示，每次都新建客户端、无限等待。应用中使用 ZkLockService（共用一个客户端、缓存锁、限时等待、异步加锁）。
  */
 @Slf4j
 @Service
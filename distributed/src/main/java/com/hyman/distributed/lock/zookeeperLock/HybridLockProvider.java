@@ -0,0 +1,449 @@
+package com.hyman.distributed.lock.zookeeperLock;
+
+import com.hyman.distributed.lock.DistributedLock2;
+import com.hyman.distributed.lock.DistributedLockProvider;
+import com.hyman.distributed.lock.LockLease;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.NodeCache;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 混合互斥锁：平时使用 redis（DistributedLock2，看门狗续期），redis 连接异常或者发生主从切换时整个集群改用 zookeeper
+ * （zkLockProvider，即 ZkLockService 的 InterProcessMutex），redis 恢复后再切回来。
+ *
+ * 两种后端使用同一个锁名（redis 的 key、zookeeper 的锁路径都由锁名得到），分别与直接使用 DistributedLock2、ZkLockService
+ * 的同名锁互斥。各节点的模式不能各自决定，否则 redis 模式的节点只加 redis 锁、zookeeper 模式的节点只加 zookeeper 锁，
+ * 同一个锁可能被两个节点同时持有。所以：
+ * 1，当前模式保存在 zookeeper 的 modePath 节点中，所有节点监听（NodeCache）并以它为准，本节点的加锁失败不会改变模式。
+ * 2，每个节点的后台线程每隔 probeMillis 查询一次 redis 的 run_id，查询失败或者 run_id 变化（主从切换、重启后锁可能已经丢失）
+ *    时把 modePath 设为 ZK，所有节点随之切换。
+ * 3，zookeeper 模式下 redis 可用（本节点最近一次探测正常）时仍然同时获取 redis 的锁，还没有收到通知、仍在 redis 模式的节点
+ *    也与之互斥；探测失败的节点只获取 zookeeper 的锁。
+ * 4，只持有 zookeeper 锁的租约在 modePath 下有一个临时节点（标记），释放时删除，持有者宕机时随会话删除。
+ * 5，只有选举出的一个节点（LeaderLatch，选举节点在 leaderPath 下的内部子路径中）负责切回：redis 连续正常 recoverMillis
+ *    （期间任何节点探测失败都会重新设置 ZK、重新计时）后设为 DRAINING，过渡期内新的锁同时获取 zookeeper 和 redis 的锁；
+ *    过渡期至少持续 drainMillis，并且所有节点只持有 zookeeper 锁的租约都已经释放（没有标记）才设为 REDIS，否则这些持有者
+ *    会与切回后只获取 redis 锁的节点冲突。切回使用版本号比较，与其他节点同时设置 ZK 时以 ZK 为准。
+ * drainMillis 需要大于各节点收到模式变化通知的延迟：加标记之后才检查模式，还认为是 ZK 模式的节点加的标记一定会被 leader 看到。
+ * 只持有 redis 锁的租约（redis 模式下的锁）不加标记，否则每次加锁都要写 zookeeper；zookeeper 模式下能访问 redis 的节点
+ * 同时获取 redis 的锁，与它们互斥。
+ * 主从切换时 redis 模式下已经发出的锁可能随之丢失，这是 redis 主从复制本身的限制，切换到 zookeeper 只能保证之后加的锁。
+ *
+ * 读写锁、信号量、leader 选举没有 redis 的快速路径，直接使用 zkLockProvider。
+ */
+@Slf4j
+public class HybridLockProvider implements DistributedLockProvider {
+
+    /**
+     * 等待 redis 锁时的重试间隔，毫秒
+     */
+    private static final long RETRY_MILLIS = 10;
+
+    private static final String LEADER_NAME = "hybrid-lock";
+
+    /**
+     * 只持有 zookeeper 锁的租约的标记节点名前缀，在 modePath 下
+     */
+    private static final String ZK_ONLY_MARKER = "zk-only-";
+
+    enum Mode {
+        /**
+         * 只使用 redis
+         */
+        REDIS,
+        /**
+         * 使用 zookeeper，redis 可用时同时使用 redis
+         */
+        ZK,
+        /**
+         * 过渡期，同时使用两者
+         */
+        DRAINING
+    }
+
+    private final DistributedLock2 lock2;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ZkLockProvider zkLockProvider;
+    private final CuratorFramework client;
+    private final String modePath;
+    private final long probeMillis;
+    private final long recoverMillis;
+    private final long drainMillis;
+
+    private final NodeCache modeCache;
+    private final LeaderLatch leaderLatch;
+
+    /**
+     * 集群当前的模式，只由 modePath 节点的变化更新
+     */
+    private volatile Mode mode = Mode.REDIS;
+
+    /**
+     * modePath 节点的版本号，切回时用来比较
+     */
+    private volatile int modeVersion = -1;
+
+    /**
+     * 进入过渡期的时间
+     */
+    private volatile long drainingSince;
+
+    /**
+     * 本节点最近一次探测 redis 是否正常
+     */
+    private volatile boolean redisHealthy = true;
+
+    /**
+     * redis 连续正常的起始时间，0 表示最近一次探测失败，或者有节点重新设置了 ZK
+     */
+    private volatile long healthySince;
+
+    /**
+     * 只在探测线程中访问；lastOutstanding 为过渡期结束时还没有释放的标记数，只在变化时打印日志
+     */
+    private String runId;
+    private int lastOutstanding = -1;
+
+    private ScheduledExecutorService prober;
+
+    public HybridLockProvider(DistributedLock2 lock2, RedisTemplate<String, String> redisTemplate,
+                              ZkLockProvider zkLockProvider, CuratorFramework client, String modePath,
+                              String leaderPath, long probeMillis, long recoverMillis, long drainMillis) {
+        this.lock2 = lock2;
+        this.redisTemplate = redisTemplate;
+        this.zkLockProvider = zkLockProvider;
+        this.client = client;
+        this.modePath = modePath;
+        this.probeMillis = probeMillis;
+        this.recoverMillis = recoverMillis;
+        this.drainMillis = drainMillis;
+        this.modeCache = new NodeCache(client, modePath);
+        this.leaderLatch = new LeaderLatch(client, ZkLockPaths.internalLeaderPath(leaderPath, LEADER_NAME));
+    }
+
+    public void start() throws Exception {
+        try {
+            client.create().creatingParentsIfNeeded().forPath(modePath, encode(Mode.REDIS));
+        } catch (KeeperException.NodeExistsException e) {
+            // 其他节点已经创建，使用其中的模式
+        }
+        modeCache.getListenable().addListener(this::onModeChanged);
+        modeCache.start(true);
+        onModeChanged();
+        leaderLatch.start();
+
+        prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hybrid-lock-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probe, 0, probeMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        prober.shutdownNow();
+        try {
+            leaderLatch.close();
+            modeCache.close();
+        } catch (IOException e) {
+            log.error("error", e);
+        }
+    }
+
+    @Override
+    public LockLease tryLock(String name, long waitMillis) {
+
+        long end = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            Mode current = mode;
+            if (current == Mode.REDIS) {
+                return redisLease(name, end);
+            }
+            LockLease zk = zkLock(name, end);
+            if (zk == null) {
+                return null;
+            }
+            LockLease redis = null;
+            boolean redisDown = current == Mode.ZK && !redisHealthy;
+            if (!redisDown) {
+                try {
+                    redis = redisLock(name, end);
+                } catch (Exception e) {
+                    if (current == Mode.DRAINING) {
+                        log.error("error", e);
+                        zk.release();
+                        return null;
+                    }
+                    log.warn("zookeeper 模式下获取 redis 锁失败，只使用 zookeeper：{}", e.getMessage());
+                    redisDown = true;
+                }
+            }
+            if (redis != null) {
+                LockLease held = redis;
+                return LockLease.of(name, () -> {
+                    held.release();
+                    zk.release();
+                });
+            }
+            if (!redisDown) {
+                // redis 的锁一直被占用
+                zk.release();
+                return null;
+            }
+            String marker = mark(name);
+            if (marker == null) {
+                zk.release();
+                return null;
+            }
+            // 先加标记再检查模式，与 leader 切回时先检查标记再切换不会互相错过
+            if (mode != Mode.REDIS) {
+                return LockLease.of(name, () -> {
+                    zk.release();
+                    unmark(marker);
+                });
+            }
+            // 加锁期间已经切回 redis，只持有 zookeeper 的锁不能与其他节点互斥，用新的模式重试
+            unmark(marker);
+            zk.release();
+            if (System.currentTimeMillis() >= end) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public LockLease tryReadLock(String name, long waitMillis, long leaseMillis) {
+        return zkLockProvider.tryReadLock(name, waitMillis, leaseMillis);
+    }
+
+    @Override
+    public LockLease tryWriteLock(String name, long waitMillis, long leaseMillis) {
+        return zkLockProvider.tryWriteLock(name, waitMillis, leaseMillis);
+    }
+
+    @Override
+    public LockLease tryAcquire(String name, int limit, int permits, long waitMillis, long leaseMillis) {
+        return zkLockProvider.tryAcquire(name, limit, permits, waitMillis, leaseMillis);
+    }
+
+    @Override
+    public boolean isLeader(String name) {
+        return zkLockProvider.isLeader(name);
+    }
+
+    /**
+     * 当前使用的后端
+     */
+    public String getMode() {
+        return mode.name();
+    }
+
+    /**
+     * redis 模式下加锁，redis 异常时本次加锁失败，是否切换由探测决定
+     */
+    private LockLease redisLease(String name, long end) {
+        try {
+            return redisLock(name, end);
+        } catch (Exception e) {
+            log.error("error", e);
+            return null;
+        }
+    }
+
+    /**
+     * 在 redis 上重试加锁直到获取成功或者超时，redis 异常时抛出
+     */
+    private LockLease redisLock(String name, long end) {
+        String uuid = UUID.randomUUID().toString();
+        try {
+            while (!lock2.lockWithWatchdog(name, uuid)) {
+                if (System.currentTimeMillis() + RETRY_MILLIS > end) {
+                    return null;
+                }
+                TimeUnit.MILLISECONDS.sleep(RETRY_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return LockLease.of(name, () -> {
+            try {
+                lock2.distributedUnlock(name, uuid);
+            } catch (Exception e) {
+                // 看门狗已经停止续期，锁最多一个租约时间后过期
+                log.error("error", e);
+            }
+        });
+    }
+
+    /**
+     * 为只持有 zookeeper 锁的租约加标记，失败时返回 null
+     */
+    private String mark(String name) {
+        try {
+            return client.create().withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+                    .forPath(ZKPaths.makePath(modePath, ZK_ONLY_MARKER), name.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            log.error("error", e);
+            return null;
+        }
+    }
+
+    private void unmark(String marker) {
+        try {
+            // 失败时 Curator 在后台重试，会话过期时临时节点也会被删除
+            client.delete().guaranteed().forPath(marker);
+        } catch (Exception e) {
+            log.error("error", e);
+        }
+    }
+
+    /**
+     * 所有节点还没有释放的只持有 zookeeper 锁的租约数
+     */
+    private int outstandingZkOnly() throws Exception {
+        int count = 0;
+        for (String child : client.getChildren().forPath(modePath)) {
+            if (child.startsWith(ZK_ONLY_MARKER)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private LockLease zkLock(String name, long end) {
+        return zkLockProvider.tryLock(name, Math.max(end - System.currentTimeMillis(), 0));
+    }
+
+    /**
+     * modePath 节点变化（包括其他节点重复设置 ZK）时更新本节点的模式
+     */
+    private void onModeChanged() {
+        ChildData data = modeCache.getCurrentData();
+        if (data == null) {
+            // 节点被删除，保持当前模式
+            return;
+        }
+        Mode shared;
+        try {
+            shared = Mode.valueOf(new String(data.getData(), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            log.error("混合锁模式节点 {} 的内容无效", modePath, e);
+            return;
+        }
+        if (shared == Mode.ZK) {
+            healthySince = 0;
+        } else if (shared == Mode.DRAINING && mode != Mode.DRAINING) {
+            drainingSince = System.currentTimeMillis();
+        }
+        modeVersion = data.getStat().getVersion();
+        if (shared != mode) {
+            log.warn("混合锁切换到 {}", shared);
+            mode = shared;
+        }
+    }
+
+    private void probe() {
+        String current;
+        try {
+            current = redisTemplate.execute((RedisCallback<String>) this::runId);
+        } catch (Exception e) {
+            reportFailure("探测失败：" + e.getMessage());
+            return;
+        }
+        if (current != null && runId != null && !current.equals(runId)) {
+            String previous = runId;
+            runId = current;
+            reportFailure("run_id 从 " + previous + " 变为 " + current);
+            return;
+        }
+        if (current != null) {
+            runId = current;
+        }
+        redisHealthy = true;
+
+        long now = System.currentTimeMillis();
+        if (healthySince == 0) {
+            healthySince = now;
+        }
+        if (!leaderLatch.hasLeadership()) {
+            return;
+        }
+        if (mode == Mode.ZK && now - healthySince >= recoverMillis) {
+            switchBack(Mode.DRAINING, "redis 已经恢复 " + (now - healthySince) + " 毫秒，进入过渡期");
+        } else if (mode == Mode.DRAINING && now - drainingSince >= drainMillis) {
+            int outstanding;
+            try {
+                outstanding = outstandingZkOnly();
+            } catch (Exception e) {
+                log.error("error", e);
+                return;
+            }
+            if (outstanding > 0) {
+                if (outstanding != lastOutstanding) {
+                    log.info("过渡期已经结束，还有 {} 个只持有 zookeeper 锁的租约没有释放，暂不切回 redis", outstanding);
+                }
+                lastOutstanding = outstanding;
+                return;
+            }
+            lastOutstanding = -1;
+            switchBack(Mode.REDIS, "过渡期结束，切回 redis");
+        }
+    }
+
+    private String runId(RedisConnection connection) {
+        Properties info = connection.info("server");
+        return info == null ? null : info.getProperty("run_id");
+    }
+
+    /**
+     * 把集群切换到 zookeeper。每次探测失败都重新设置，leader 的恢复计时随之重新开始
+     */
+    private void reportFailure(String reason) {
+        redisHealthy = false;
+        healthySince = 0;
+        if (mode != Mode.ZK) {
+            log.warn("混合锁请求切换到 zookeeper，{}", reason);
+        }
+        try {
+            client.setData().forPath(modePath, encode(Mode.ZK));
+        } catch (Exception e) {
+            // zookeeper 也不可用，保持当前模式，redis 模式下加锁会失败
+            log.error("error", e);
+        }
+    }
+
+    /**
+     * leader 切回 redis 的一步，模式节点在此期间被其他节点修改过（比如重新设置了 ZK）时放弃
+     */
+    private void switchBack(Mode next, String reason) {
+        try {
+            client.setData().withVersion(modeVersion).forPath(modePath, encode(next));
+            log.info("混合锁{}", reason);
+        } catch (KeeperException.BadVersionException e) {
+            log.info("混合锁模式节点已经被其他节点修改，暂不切换到 {}", next);
+        } catch (Exception e) {
+            log.error("error", e);
+        }
+    }
+
+    private static byte[] encode(Mode mode) {
+        return mode.name().getBytes(StandardCharsets.UTF_8);
+    }
+}
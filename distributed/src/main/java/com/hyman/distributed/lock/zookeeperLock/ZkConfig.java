@@ -0,0 +1,88 @@
+package com.hyman.distributed.lock.zookeeperLock;
+
+import com.hyman.distributed.lock.DistributedLock2;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisTemplate;
+
+/**
+ * zookeeper 客户端、锁服务、ZkLockProvider 和 HybridLockProvider，配置了 distributed.zookeeper.connect-string 才启用。
+ * 整个应用共用一个 CuratorFramework，随容器启动和关闭；连接断开、会话过期时打印日志，会话过期后持有的锁（临时节点）已经失效。
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "distributed.zookeeper", name = "connect-string")
+public class ZkConfig {
+
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public CuratorFramework curatorFramework(@Value("${distributed.zookeeper.connect-string}") String connectString,
+                                             @Value("${distributed.zookeeper.session-timeout-millis:60000}") int sessionTimeout,
+                                             @Value("${distributed.zookeeper.connection-timeout-millis:15000}") int connectionTimeout,
+                                             @Value("${distributed.zookeeper.base-sleep-millis:1000}") int baseSleep,
+                                             @Value("${distributed.zookeeper.max-retries:3}") int maxRetries) {
+        CuratorFramework client = CuratorFrameworkFactory.builder()
+                .connectString(connectString)
+                .sessionTimeoutMs(sessionTimeout)
+                .connectionTimeoutMs(connectionTimeout)
+                .retryPolicy(new ExponentialBackoffRetry(baseSleep, maxRetries))
+                .build();
+        client.getConnectionStateListenable().addListener((c, state) -> {
+            if (state == ConnectionState.LOST) {
+                log.error("zookeeper 会话过期，持有的锁已经失效");
+            } else if (state == ConnectionState.SUSPENDED) {
+                log.warn("zookeeper 连接断开");
+            } else {
+                log.info("zookeeper 连接状态：{}", state);
+            }
+        });
+        log.info("CuratorFramework init successful，connectString -> [{}]", connectString);
+        return client;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ZkLockService zkLockService(CuratorFramework curatorFramework,
+                                       @Value("${distributed.zookeeper.lock-path:/locks}") String lockPath,
+                                       @Value("${distributed.zookeeper.max-cached-locks:10000}") int maxCached,
+                                       @Value("${distributed.zookeeper.idle-millis:60000}") long idleMillis,
+                                       @Value("${distributed.zookeeper.async-threads:16}") int asyncThreads) {
+        return new ZkLockService(curatorFramework, lockPath, maxCached, idleMillis, asyncThreads);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public ZkLockReaper zkLockReaper(CuratorFramework curatorFramework,
+                                     @Value("${distributed.zookeeper.lock-path:/locks}") String lockPath,
+                                     @Value("${distributed.zookeeper.leader-path:/leaders}") String leaderPath,
+                                     @Value("${distributed.zookeeper.reaper-interval-millis:60000}") long interval,
+                                     @Value("${distributed.zookeeper.reaper-ops-per-second:100}") int opsPerSecond,
+                                     @Value("${distributed.zookeeper.reaper-max-ops-per-tick:1000}") int maxOpsPerTick) {
+        return new ZkLockReaper(curatorFramework, lockPath, leaderPath, interval, opsPerSecond, maxOpsPerTick);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ZkLockProvider zkLockProvider(CuratorFramework curatorFramework, ZkLockService zkLockService,
+                                         @Value("${distributed.zookeeper.lock-path:/locks}") String lockPath,
+                                         @Value("${distributed.zookeeper.leader-path:/leaders}") String leaderPath) {
+        return new ZkLockProvider(curatorFramework, zkLockService, lockPath, leaderPath);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public HybridLockProvider hybridLockProvider(DistributedLock2 distributedLock2,
+                                                 RedisTemplate<String, String> redisTemplate,
+                                                 ZkLockProvider zkLockProvider,
+                                                 CuratorFramework curatorFramework,
+                                                 @Value("${distributed.zookeeper.hybrid-mode-path:/hybrid-lock/mode}") String modePath,
+                                                 @Value("${distributed.zookeeper.leader-path:/leaders}") String leaderPath,
+                                                 @Value("${distributed.zookeeper.hybrid-probe-millis:1000}") long probeMillis,
+                                                 @Value("${distributed.zookeeper.hybrid-recover-millis:10000}") long recoverMillis,
+                                                 @Value("${distributed.zookeeper.hybrid-drain-millis:30000}") long drainMillis) {
+        return new HybridLockProvider(distributedLock2, redisTemplate, zkLockProvider, curatorFramework, modePath,
+                leaderPath, probeMillis, recoverMillis, drainMillis);
+    }
+}
@@ -0,0 +1,62 @@
+package com.hyman.distributed.lock.zookeeperLock;
+
+import org.apache.curator.utils.ZKPaths;
+
+/**
+ * 锁节点路径的分片
+ *
+ * 每个锁都会留下一个持久的父节点（锁节点是它下面的临时顺序节点），如果所有锁都直接放在根路径下，按订单等维度加锁时根路径下会有
+ * 几万、几十万个子节点，getChildren 和快照都会变慢。按锁名的 hash 分成两级目录：/locks/ab/cd/锁名，每级最多 256 个子节点。
+ * 空的锁父节点由 ZkLockReaper 清理。锁名中不能包含 /。
+ */
+public final class ZkLockPaths {
+
+    /**
+     * 分片的目录层数，锁的父节点在根路径下第 SHARD_LEVELS + 1 层
+     */
+    static final int SHARD_LEVELS = 2;
+
+    /**
+     * 框架内部使用的 leader 选举（如 ZkLockReaper）放在 leader 根路径下的这个子路径中，@LeaderOnly 的组不能使用这个名字
+     */
+    static final String INTERNAL_LEADERS = "_internal";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ZkLockPaths() {
+    }
+
+    /**
+     * 锁的父节点路径
+     *
+     * @param basePath 根路径
+     * @param name     锁名
+     */
+    public static String lockPath(String basePath, String name) {
+        int h = mix(name.hashCode());
+        char[] shard = {HEX[(h >>> 28) & 0xf], HEX[(h >>> 24) & 0xf], '/', HEX[(h >>> 20) & 0xf], HEX[(h >>> 16) & 0xf]};
+        return ZKPaths.makePath(basePath, new String(shard), name);
+    }
+
+    /**
+     * 框架内部的 leader 选举节点路径，与 @LeaderOnly 的组分开，不会因为组名相同而加入同一个选举
+     *
+     * @param leaderPath leader 选举的根路径
+     * @param name       选举的名字
+     */
+    static String internalLeaderPath(String leaderPath, String name) {
+        return ZKPaths.makePath(leaderPath, INTERNAL_LEADERS, name);
+    }
+
+    /**
+     * 打散 hashCode，相邻的锁名（如连续的订单号）也均匀分布到不同分片
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
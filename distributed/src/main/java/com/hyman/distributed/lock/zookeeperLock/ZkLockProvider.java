@@ -0,0 +1,185 @@
+package com.hyman.distributed.lock.zookeeperLock;
+
+import com.hyman.distributed.lock.DistributedLockProvider;
+import com.hyman.distributed.lock.LockLease;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.apache.curator.framework.recipes.locks.InterProcessReadWriteLock;
+import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreV2;
+import org.apache.curator.framework.recipes.locks.Lease;
+import org.apache.curator.utils.ZKPaths;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * zookeeper 实现的 DistributedLockProvider，使用 Curator 的 recipe：
+ * 1，互斥锁使用 ZkLockService 的租约，可以在任意线程释放。
+ * 2，读写锁使用 InterProcessReadWriteLock。它记录的是线程的持有关系，必须在加锁的线程释放。
+ * 3，信号量使用 InterProcessSemaphoreV2，许可是临时节点，可以在任意线程释放，持有者会话过期后自动归还。
+ * 4，leader 选举使用 LeaderLatch，第一次调用 isLeader 时加入选举，之后一直保持；leader 的会话过期后其他节点立即接替，
+ *    不需要像 redis 那样等租约过期。选举节点在 leaderPath/组名 下，leaderPath/_internal 保留给框架内部的选举。
+ * 读写锁、信号量的节点与互斥锁一样按锁名分片存放，锁名前加上类型前缀，与同名的互斥锁互不影响。
+ */
+@Slf4j
+public class ZkLockProvider implements DistributedLockProvider {
+
+    /**
+     * 信号量锁名的前缀。InterProcessSemaphoreV2 在父节点下创建 locks、leases 两个持久子节点，ZkLockReaper 按这个前缀识别
+     */
+    static final String SEMAPHORE_PREFIX = "semaphore:";
+
+    private final CuratorFramework client;
+    private final ZkLockService lockService;
+
+    /**
+     * 锁节点的根路径，与 ZkLockService 相同
+     */
+    private final String basePath;
+
+    /**
+     * leader 选举节点的根路径
+     */
+    private final String leaderPath;
+
+    /**
+     * 本节点参与选举的组 -> LeaderLatch
+     */
+    private final ConcurrentHashMap<String, LeaderLatch> latches = new ConcurrentHashMap<>();
+
+    public ZkLockProvider(CuratorFramework client, ZkLockService lockService, String basePath, String leaderPath) {
+        this.client = client;
+        this.lockService = lockService;
+        this.basePath = basePath;
+        this.leaderPath = leaderPath;
+    }
+
+    /**
+     * 退出所有选举，其他节点立即接替
+     */
+    public void shutdown() {
+        for (LeaderLatch latch : latches.values()) {
+            try {
+                latch.close();
+            } catch (Exception e) {
+                log.error("error", e);
+            }
+        }
+        latches.clear();
+    }
+
+    @Override
+    public LockLease tryLock(String name, long waitMillis) {
+        try {
+            return lease(lockService.tryLease(name, waitMillis, TimeUnit.MILLISECONDS));
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 在 ZkLockService 的异步加锁线程池中等待
+     */
+    @Override
+    public CompletableFuture<LockLease> lockAsync(String name, long waitMillis) {
+        CompletableFuture<LockLease> future = new CompletableFuture<>();
+        lockService.lockAsync(name, waitMillis, TimeUnit.MILLISECONDS).whenComplete((lease, e) -> {
+            LockLease wrapped = e == null ? lease(lease) : failed(e);
+            if (!future.complete(wrapped) && wrapped != null) {
+                wrapped.release();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 必须在加锁的线程释放
+     */
+    @Override
+    public LockLease tryReadLock(String name, long waitMillis, long leaseMillis) {
+        return acquire(name, readWriteLock(name).readLock(), waitMillis);
+    }
+
+    /**
+     * 必须在加锁的线程释放
+     */
+    @Override
+    public LockLease tryWriteLock(String name, long waitMillis, long leaseMillis) {
+        return acquire(name, readWriteLock(name).writeLock(), waitMillis);
+    }
+
+    @Override
+    public LockLease tryAcquire(String name, int limit, int permits, long waitMillis, long leaseMillis) {
+        InterProcessSemaphoreV2 semaphore =
+                new InterProcessSemaphoreV2(client, ZkLockPaths.lockPath(basePath, SEMAPHORE_PREFIX + name), limit);
+        try {
+            Collection<Lease> leases = semaphore.acquire(permits, waitMillis, TimeUnit.MILLISECONDS);
+            return leases == null ? null : LockLease.of(name, () -> semaphore.returnAll(leases));
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 组名不能是框架内部选举使用的 {@link ZkLockPaths#INTERNAL_LEADERS}
+     */
+    @Override
+    public boolean isLeader(String name) {
+        if (ZkLockPaths.INTERNAL_LEADERS.equals(name)) {
+            throw new IllegalArgumentException("leader 选举的组名保留给内部使用：" + name);
+        }
+        LeaderLatch latch = latches.computeIfAbsent(name, k -> {
+            LeaderLatch created = new LeaderLatch(client, ZKPaths.makePath(leaderPath, k));
+            try {
+                created.start();
+            } catch (Exception e) {
+                throw new IllegalStateException("加入选举失败：" + k, e);
+            }
+            return created;
+        });
+        return latch.hasLeadership();
+    }
+
+    private LockLease lease(ZkLockService.Lease lease) {
+        return lease == null ? null : LockLease.of(lease.getName(), () -> {
+            try {
+                lockService.unlock(lease);
+            } catch (Exception e) {
+                log.error("error", e);
+            }
+        });
+    }
+
+    private InterProcessReadWriteLock readWriteLock(String name) {
+        return new InterProcessReadWriteLock(client, ZkLockPaths.lockPath(basePath, "rw:" + name));
+    }
+
+    private LockLease acquire(String name, InterProcessMutex mutex, long waitMillis) {
+        try {
+            if (!mutex.acquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+            return LockLease.of(name, () -> {
+                try {
+                    mutex.release();
+                } catch (Exception e) {
+                    log.error("error", e);
+                }
+            });
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    private static LockLease failed(Throwable e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        log.error("error", e);
+        return null;
+    }
+}
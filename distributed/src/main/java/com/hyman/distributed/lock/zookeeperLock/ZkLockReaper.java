@@ -0,0 +1,255 @@
+package com.hyman.distributed.lock.zookeeperLock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 清理空的锁父节点
+ *
+ * 锁释放后锁节点（临时顺序节点）被删除，父节点还在，不清理的话每个用过的锁名都会永久留下一个节点。zookeeper 3.4 没有容器节点
+ * （CONTAINER，3.5 才有，子节点删光后服务端自动删除），Curator 的 Reaper/ChildReaper 也已经废弃，所以定期遍历分片目录：
+ * 1，只有选举出的一个节点（LeaderLatch，选举节点在 leaderPath 下的内部子路径中）执行清理，其他节点的清理线程空转，不会每个节点都遍历一遍。
+ * 2，父节点没有子节点时记下它的 pzxid（最后一次子节点变化的事务 id），下一轮遍历时仍然没有子节点并且 pzxid 没有变化（两轮之间
+ *    没有人加过锁）才删除，避免频繁使用的锁反复删除、创建父节点。
+ * 3，删除时不带版本号（节点的 version 是数据的版本，与子节点无关），依靠 zookeeper 拒绝删除有子节点的节点：刚好有人在加锁时
+ *    删除失败，跳过即可；父节点被删除后加锁会自动重新创建。
+ * 4，每次访问 zookeeper 之后按 opsPerSecond 限速，并且每次执行最多访问 maxOpsPerTick 次，没有遍历完的目录留到下一次继续，
+ *    锁名很多时一轮遍历分多次完成，不会长时间占用 zookeeper。
+ * 5，信号量（InterProcessSemaphoreV2）的父节点下有 locks、leases 两个持久子节点，释放后父节点并不为空。这两个子节点都为空时，
+ *    取父节点和它们的 pzxid 中最大的一个作为比较的依据，两轮之间没有变化才依次删除 leases、locks 和父节点；删除到一半时
+ *    有人获取信号量会删除失败，Curator 获取时会重新创建缺少的节点。
+ * 分片目录（最多 256 × 256 个）不清理。
+ */
+@Slf4j
+public class ZkLockReaper {
+
+    private static final String LEADER_NAME = "zk-lock-reaper";
+
+    /**
+     * InterProcessSemaphoreV2 在父节点下创建的持久子节点，按名字排序，删除时先删 leases
+     */
+    private static final List<String> SEMAPHORE_CHILDREN = Arrays.asList("leases", "locks");
+
+    private final CuratorFramework client;
+    private final String basePath;
+    private final long intervalMillis;
+    private final int maxOpsPerTick;
+
+    /**
+     * 每次访问 zookeeper 之后休眠的时间，纳秒
+     */
+    private final long pauseNanos;
+
+    private final LeaderLatch leaderLatch;
+
+    /**
+     * 以下只在清理线程中访问。
+     * 没有子节点的锁父节点 -> 上一次看到时的 pzxid
+     */
+    private final Map<String, Long> candidates = new HashMap<>();
+
+    /**
+     * 本轮遍历还没有访问的路径，为空时从根路径开始新的一轮
+     */
+    private final ArrayDeque<String> pending = new ArrayDeque<>();
+
+    /**
+     * 本次执行剩余的 zookeeper 访问次数
+     */
+    private int budget;
+
+    private ScheduledExecutorService scheduler;
+
+    public ZkLockReaper(CuratorFramework client, String basePath, String leaderPath, long intervalMillis,
+                        int opsPerSecond, int maxOpsPerTick) {
+        this.client = client;
+        this.basePath = basePath;
+        this.intervalMillis = intervalMillis;
+        this.maxOpsPerTick = Math.max(maxOpsPerTick, 1);
+        this.pauseNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(opsPerSecond, 1);
+        this.leaderLatch = new LeaderLatch(client, ZkLockPaths.internalLeaderPath(leaderPath, LEADER_NAME));
+    }
+
+    public void start() throws Exception {
+        leaderLatch.start();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "zk-lock-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reap, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        try {
+            leaderLatch.close();
+        } catch (IOException e) {
+            log.error("error", e);
+        }
+    }
+
+    boolean isLeader() {
+        return leaderLatch.hasLeadership();
+    }
+
+    /**
+     * 执行一次清理，不是 leader 时什么都不做
+     *
+     * @return 删除的父节点数
+     */
+    int reap() {
+        if (!isLeader()) {
+            // 重新成为 leader 时其他节点可能已经清理过，之前的记录作废
+            candidates.clear();
+            pending.clear();
+            return 0;
+        }
+
+        budget = maxOpsPerTick;
+        if (pending.isEmpty()) {
+            pending.add(basePath);
+        }
+        int deleted = 0;
+        try {
+            while (budget > 0 && !pending.isEmpty()) {
+                String path = pending.peek();
+                if (level(path) <= ZkLockPaths.SHARD_LEVELS) {
+                    List<String> children = children(path);
+                    pending.poll();
+                    pending.addAll(children);
+                } else {
+                    deleted += reapParent(path);
+                    pending.poll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 连接异常等，从头开始新的一轮
+            pending.clear();
+            log.error("error", e);
+        }
+        if (deleted > 0) {
+            log.info("清理空的锁节点 {} 个", deleted);
+        }
+        return deleted;
+    }
+
+    /**
+     * 检查一个锁父节点，连续两轮为空并且没有变化时删除
+     */
+    private int reapParent(String path) throws Exception {
+
+        pause();
+        Stat stat = client.checkExists().forPath(path);
+        if (stat == null) {
+            candidates.remove(path);
+            return 0;
+        }
+        long signature = stat.getPzxid();
+        List<String> recipeNodes = Collections.emptyList();
+        if (stat.getNumChildren() > 0) {
+            recipeNodes = semaphoreNodes(path, stat.getNumChildren());
+            if (recipeNodes == null) {
+                candidates.remove(path);
+                return 0;
+            }
+            for (String node : recipeNodes) {
+                pause();
+                Stat nodeStat = client.checkExists().forPath(node);
+                if (nodeStat == null || nodeStat.getNumChildren() > 0) {
+                    candidates.remove(path);
+                    return 0;
+                }
+                signature = Math.max(signature, nodeStat.getPzxid());
+            }
+        }
+
+        Long seen = candidates.put(path, signature);
+        if (seen == null || seen != signature || budget <= 0) {
+            return 0;
+        }
+
+        candidates.remove(path);
+        try {
+            for (String node : recipeNodes) {
+                pause();
+                client.delete().forPath(node);
+            }
+            pause();
+            client.delete().forPath(path);
+            return 1;
+        } catch (KeeperException.NotEmptyException | KeeperException.NoNodeException e) {
+            // 刚好有人加锁，或者已经被删除
+            return 0;
+        }
+    }
+
+    /**
+     * 信号量父节点下的 locks、leases 子节点的路径；不是信号量，或者还有其他子节点时返回 null
+     */
+    private List<String> semaphoreNodes(String path, int numChildren) throws Exception {
+        if (numChildren > SEMAPHORE_CHILDREN.size()
+                || !ZKPaths.getNodeFromPath(path).startsWith(ZkLockProvider.SEMAPHORE_PREFIX)) {
+            return null;
+        }
+        List<String> nodes = children(path);
+        for (String node : nodes) {
+            if (!SEMAPHORE_CHILDREN.contains(ZKPaths.getNodeFromPath(node))) {
+                return null;
+            }
+        }
+        return nodes;
+    }
+
+    private List<String> children(String path) throws Exception {
+        pause();
+        try {
+            List<String> children = client.getChildren().forPath(path);
+            Collections.sort(children);
+            for (int i = 0; i < children.size(); i++) {
+                children.set(i, ZKPaths.makePath(path, children.get(i)));
+            }
+            return children;
+        } catch (KeeperException.NoNodeException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 路径在根路径下的层数，根路径为 0
+     */
+    private int level(String path) {
+        if (path.length() <= basePath.length()) {
+            return 0;
+        }
+        int level = 0;
+        for (int i = basePath.length(); i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                level++;
+            }
+        }
+        return level;
+    }
+
+    private void pause() throws InterruptedException {
+        budget--;
+        TimeUnit.NANOSECONDS.sleep(pauseNanos);
+    }
+}
@@ -0,0 +1,259 @@
+package com.hyman.distributed.lock.zookeeperLock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于 zookeeper 的分布式锁服务，由 CuratorClient 的示例改造而来
+ *
+ * CuratorClient 每次使用都新建一个 CuratorFramework（每次加锁都要建立连接、创建会话），并且 acquire() 会一直阻塞。这里：
+ * 1，整个应用共用一个已经启动的 CuratorFramework（见 ZkConfig），加锁只有创建临时顺序节点、查询子节点的开销。
+ * 2，每个锁路径的 InterProcessMutex 缓存起来重复使用（它记录了线程的重入次数，同一个线程的加锁和释放必须用同一个实例）。
+ *    缓存有上限，空闲（没有线程持有、也没有线程在等待）超过 idleMillis 的定期清理，超过上限时立即清理所有空闲的。
+ * 3，tryLock 最多等待指定的时间。
+ * 4，异步加锁返回 CompletableFuture，等待在专门的线程池中进行，不占用请求线程。InterProcessMutex 只能由加锁的线程释放，所以异步
+ *    加锁（以及 tryLease）每次使用单独的实例，释放时直接删除自己的锁节点（与 InterProcessMutex 释放时做的一样），可以在任意线程释放。
+ *    两种方式使用相同的节点和协议，同一个锁路径的同步锁和异步锁互斥。
+ * 锁节点按锁名的 hash 分片存放（见 ZkLockPaths），空的父节点由 ZkLockReaper 清理。
+ */
+@Slf4j
+public class ZkLockService {
+
+    private final CuratorFramework client;
+
+    /**
+     * 所有锁节点的根路径
+     */
+    private final String basePath;
+
+    private final int maxCached;
+
+    /**
+     * 锁的名字 -> 缓存的锁
+     */
+    private final ConcurrentHashMap<String, CachedMutex> mutexes = new ConcurrentHashMap<>();
+
+    private final ExecutorService asyncExecutor;
+    private final ScheduledExecutorService evictor;
+
+    public ZkLockService(CuratorFramework client, String basePath, int maxCached, long idleMillis, int asyncThreads) {
+        this.client = client;
+        this.basePath = basePath;
+        this.maxCached = maxCached;
+
+        AtomicInteger threads = new AtomicInteger();
+        this.asyncExecutor = Executors.newFixedThreadPool(asyncThreads, r -> {
+            Thread thread = new Thread(r, "zk-lock-async-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "zk-lock-evict");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(idleMillis / 2, 1);
+        evictor.scheduleWithFixedDelay(() -> evict(idleMillis), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        evictor.shutdownNow();
+        asyncExecutor.shutdownNow();
+    }
+
+    /**
+     * 获取锁，可重入，必须由同一个线程调用 {@link #unlock(String)} 释放
+     *
+     * @param name 锁的名字
+     * @param wait 最多等待的时间
+     * @param unit 等待时间的单位
+     * @return 是否获取成功
+     */
+    public boolean tryLock(String name, long wait, TimeUnit unit) throws Exception {
+
+        CachedMutex cached = retain(name);
+        boolean acquired = false;
+        try {
+            acquired = cached.mutex.acquire(wait, unit);
+        } finally {
+            if (!acquired) {
+                release(name);
+            }
+        }
+        return acquired;
+    }
+
+    /**
+     * 释放 {@link #tryLock(String, long, TimeUnit)} 获取的锁，当前线程没有持有时抛出 IllegalMonitorStateException，
+     * 不影响持有者的使用计数
+     */
+    public void unlock(String name) throws Exception {
+
+        CachedMutex cached = mutexes.get(name);
+        if (cached == null || !cached.mutex.isOwnedByCurrentThread()) {
+            throw new IllegalMonitorStateException("没有持有锁：" + name);
+        }
+        try {
+            cached.mutex.release();
+        } finally {
+            // 持有者调用 release 后重入次数已经减掉，即使删除锁节点失败（Curator 会在后台继续删除）也要减少使用者
+            release(name);
+        }
+    }
+
+    /**
+     * 获取锁，返回的租约可以在任意线程通过 {@link #unlock(Lease)} 释放。不可重入。
+     *
+     * @return 获取成功返回租约，超时返回 null
+     */
+    public Lease tryLease(String name, long wait, TimeUnit unit) throws Exception {
+        LeaseMutex mutex = new LeaseMutex(client, path(name));
+        return mutex.acquire(wait, unit) ? new Lease(name, mutex.lockPath()) : null;
+    }
+
+    /**
+     * 异步获取锁，等待在专门的线程池中进行，见 {@link #tryLease(String, long, TimeUnit)}。
+     * 等待时间从调用时开始计算，在线程池中排队的时间也算在内。
+     *
+     * @return 获取成功时完成为租约，超时完成为 null，zookeeper 异常时异常完成
+     */
+    public CompletableFuture<Lease> lockAsync(String name, long wait, TimeUnit unit) {
+
+        long deadline = System.nanoTime() + unit.toNanos(wait);
+        CompletableFuture<Lease> future = new CompletableFuture<>();
+        asyncExecutor.execute(() -> {
+            try {
+                // 已经超时也尝试一次，与 tryLease 等待时间为 0 时一样
+                long remaining = Math.max(deadline - System.nanoTime(), 0);
+                Lease lease = tryLease(name, remaining, TimeUnit.NANOSECONDS);
+                // 调用方已经取消（如等待超时）时没有人会释放，立即释放
+                if (!future.complete(lease) && lease != null) {
+                    unlock(lease);
+                }
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 释放 tryLease、lockAsync 获取的锁
+     */
+    public void unlock(Lease lease) throws Exception {
+        client.delete().guaranteed().forPath(lease.lockPath);
+    }
+
+    /**
+     * 当前缓存的锁的数量
+     */
+    public int getCachedCount() {
+        return mutexes.size();
+    }
+
+    private String path(String name) {
+        return ZkLockPaths.lockPath(basePath, name);
+    }
+
+    /**
+     * 取出（没有时创建）锁并增加使用者，使用者不为 0 的锁不会被清理
+     */
+    private CachedMutex retain(String name) {
+
+        CachedMutex cached = mutexes.compute(name, (k, v) -> {
+            if (v == null) {
+                v = new CachedMutex(new InterProcessMutex(client, path(k)));
+            }
+            v.users++;
+            return v;
+        });
+        if (mutexes.size() > maxCached) {
+            evict(0);
+        }
+        return cached;
+    }
+
+    private void release(String name) {
+        mutexes.computeIfPresent(name, (k, v) -> {
+            v.users--;
+            v.lastUsed = System.currentTimeMillis();
+            return v;
+        });
+    }
+
+    /**
+     * 清理空闲超过 idle 毫秒的锁
+     */
+    private void evict(long idle) {
+        long before = System.currentTimeMillis() - idle;
+        for (Map.Entry<String, CachedMutex> entry : mutexes.entrySet()) {
+            if (entry.getValue().users == 0 && entry.getValue().lastUsed <= before) {
+                mutexes.computeIfPresent(entry.getKey(), (k, v) -> v.users == 0 ? null : v);
+            }
+        }
+    }
+
+    /**
+     * 缓存的锁，users 为持有和等待的次数（重入算多次），只在 mutexes 的 compute 中修改
+     */
+    private static final class CachedMutex {
+
+        private final InterProcessMutex mutex;
+        private int users;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        CachedMutex(InterProcessMutex mutex) {
+            this.mutex = mutex;
+        }
+    }
+
+    /**
+     * tryLease、异步加锁使用的锁，取出加锁线程的锁节点，以便在其他线程释放
+     */
+    private static final class LeaseMutex extends InterProcessMutex {
+
+        LeaseMutex(CuratorFramework client, String path) {
+            super(client, path);
+        }
+
+        String lockPath() {
+            return getLockPath();
+        }
+    }
+
+    /**
+     * tryLease、lockAsync 获取的锁
+     */
+    public static final class Lease {
+
+        private final String name;
+
+        /**
+         * 自己的锁节点（临时顺序节点）
+         */
+        private final String lockPath;
+
+        Lease(String name, String lockPath) {
+            this.name = name;
+            this.lockPath = lockPath;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getLockPath() {
+            return lockPath;
+        }
+    }
+}
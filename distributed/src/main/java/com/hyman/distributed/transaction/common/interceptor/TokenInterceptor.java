@@ -18,6 +18,11 @@ import java.util.Map;
  */
 public class TokenInterceptor implements HandlerInterceptor {
 
+    /**
+     * token 的数据放在请求属性中的名字，供后续使用（如按用户限流的 key 表达式）
+     */
+    public static final String TOKEN_DATA = "tokenData";
+
     @Autowired
     private JWTUtil jwtUtil;
 
@@ -38,6 +43,8 @@ public class TokenInterceptor implements HandlerInterceptor {
 
         // 验证 token 逻辑省略...
 
+        request.setAttribute(TOKEN_DATA, tokenData);
+
         return true;
     }
 }
@@ -0,0 +1,35 @@
+package com.hyman.distributed.transaction.common.utils;
+
+import com.baomidou.mybatisplus.core.conditions.interfaces.Join;
+import com.baomidou.mybatisplus.core.conditions.update.Update;
+
+/**
+ * fencing token 更新保护
+ *
+ * 分布式锁的持有者可能因为 GC 停顿、网络延迟等原因，在锁已经过期、被别人获取之后才去写数据库，仅靠锁无法阻止这种过期的写入。
+ * 做法是加锁时由 redis 发放一个单调递增的 token（见 DistributedLock2#fencedLock），写数据时带上 token：
+ * update ... set ..., fence_token = #{token} where ... and fence_token <= #{token}
+ * 新的持有者写入后，行上的 fence_token 变大，过期持有者的 token 更小，它的更新匹配不到任何行（影响行数为 0）。
+ * 条件包含等于，同一个持有者在一次加锁期间可以多次更新同一行。
+ *
+ * 受保护的表需要增加列：alter table xxx add column fence_token bigint not null default 0，实体上对应 fenceToken 字段（见 Customer）。
+ * 支持 UpdateWrapper、LambdaUpdateWrapper，以及 lambdaUpdate() 等链式的 wrapper。
+ */
+public class FenceGuard {
+
+    public static final String FENCE_COLUMN = "fence_token";
+
+    private FenceGuard() {
+    }
+
+    /**
+     * 为更新加上 fencing token 保护，调用方需要检查更新结果，更新失败说明锁已经被更新的持有者获取
+     *
+     * @param wrapper 更新的 wrapper
+     * @param token   加锁时获得的 fencing token
+     */
+    public static <W extends Update<W, ?> & Join<W>> W fenced(W wrapper, long token) {
+        return wrapper.setSql(FENCE_COLUMN + " = " + token)
+                .apply(FENCE_COLUMN + " <= {0}", token);
+    }
+}
@@ -1,8 +1,10 @@
 package com.hyman.distributed.transaction.pojo.entity;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
+import com.hyman.distributed.transaction.common.utils.FenceGuard;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.experimental.Accessors;
@@ -47,4 +49,12 @@ public class Customer implements Serializable {
      */
     private String userNum;
 
+    /**
+     * 最后一次写入该行的锁持有者的 fencing token，由 FenceGuard 维护。
+     * 对应列：alter table customer add column fence_token bigint not null default 0
+     * 查询时不选这一列，为空时插入、按 id 更新也不写这一列，只有使用 FenceGuard 的更新会访问它，没有执行上面 DDL 的库不受影响。
+     */
+    @TableField(value = FenceGuard.FENCE_COLUMN, select = false)
+    private Long fenceToken;
+
 }
@@ -20,4 +20,12 @@ public interface TransService extends IService<Customer> {
      * @return
      */
     Result insert(UserDTO userDTO);
+
+    /**
+     * 新增客户，更新用户客户数时使用 fencing token 保护，锁已经被更新的持有者获取时回滚
+     * @param userDTO
+     * @param fenceToken 加锁时获得的 fencing token
+     * @return
+     */
+    Result insert(UserDTO userDTO, long fenceToken);
 }
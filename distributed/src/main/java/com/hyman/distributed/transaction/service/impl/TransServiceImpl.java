@@ -1,9 +1,11 @@
 package com.hyman.distributed.transaction.service.impl;
 
+import com.baomidou.mybatisplus.extension.service.additional.update.impl.LambdaUpdateChainWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hyman.distributed.transaction.common.enums.ResultEnum;
 import com.hyman.distributed.transaction.common.exception.BusinessException;
 import com.hyman.distributed.transaction.common.response.Result;
+import com.hyman.distributed.transaction.common.utils.FenceGuard;
 import com.hyman.distributed.transaction.dao.second.CustomerMapper;
 import com.hyman.distributed.transaction.pojo.entity.Customer;
 import com.hyman.distributed.transaction.pojo.entity.User;
@@ -34,6 +36,16 @@ public class TransServiceImpl extends ServiceImpl<CustomerMapper, Customer> impl
     @Override
     @Transactional(rollbackFor = BusinessException.class)
     public Result insert(UserDTO userDTO) {
+        return insert(userDTO, null);
+    }
+
+    @Override
+    @Transactional(rollbackFor = BusinessException.class)
+    public Result insert(UserDTO userDTO, long fenceToken) {
+        return insert(userDTO, Long.valueOf(fenceToken));
+    }
+
+    private Result insert(UserDTO userDTO, Long fenceToken) {
 
         // 使用 lambdaQuery 查询，使代码更优雅。当然也可以直接使用本类对象 . 调用。
         Customer customer = this.lambdaQuery()
@@ -51,11 +63,14 @@ public class TransServiceImpl extends ServiceImpl<CustomerMapper, Customer> impl
                 .setPhone(userDTO.getPhone());
         boolean userStatus = userService.save(newuser);
 
-        //更新用户客户数
-        boolean customerStatus = this.lambdaUpdate()
+        //更新用户客户数，有 fencing token 时过期的锁持有者更新不到任何行
+        LambdaUpdateChainWrapper<Customer> update = this.lambdaUpdate()
                 .set(Customer::getUserNum, customer.getUserNum() + 1)
-                .eq(Customer::getUserId, userDTO.getUserId())
-                .update();
+                .eq(Customer::getUserId, userDTO.getUserId());
+        if (fenceToken != null) {
+            FenceGuard.fenced(update, fenceToken);
+        }
+        boolean customerStatus = update.update();
 
         // 如果不符合条件，则两个数据库表数据回滚
         if (! customerStatus || ! userStatus) {
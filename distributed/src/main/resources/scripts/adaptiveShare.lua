@@ -0,0 +1,32 @@
+-- 自适应并发限流-集群总上限分摊-lua
+-- KEYS[1] 各节点当前上限（hash，field 为节点标识，value 为 上限:过期时间戳），ARGV[1] 节点标识，ARGV[2] 本节点当前上限，
+-- ARGV[3] 集群总上限，ARGV[4] 节点上报的有效期（毫秒），ARGV[5] 当前时间戳（毫秒）
+-- 上报本节点的上限，清理过期（已下线）的节点，返回本节点允许的上限：
+-- 总和超过集群上限时按比例缩减，否则本节点上限加上剩余额度的平均份额
+
+local node = ARGV[1]
+local limit = tonumber(ARGV[2])
+local ceiling = tonumber(ARGV[3])
+local ttl = tonumber(ARGV[4])
+local now = tonumber(ARGV[5])
+
+redis.call('hset', KEYS[1], node, limit .. ':' .. (now + ttl))
+
+local total = 0
+local nodes = 0
+local entries = redis.call('hgetall', KEYS[1])
+for i = 1, #entries, 2 do
+    local sep = string.find(entries[i + 1], ':', 1, true)
+    if tonumber(string.sub(entries[i + 1], sep + 1)) < now then
+        redis.call('hdel', KEYS[1], entries[i])
+    else
+        total = total + tonumber(string.sub(entries[i + 1], 1, sep - 1))
+        nodes = nodes + 1
+    end
+end
+redis.call('pexpire', KEYS[1], ttl)
+
+if total > ceiling then
+    return math.max(math.floor(ceiling * limit / total), 1)
+end
+return limit + math.floor((ceiling - total) / nodes)
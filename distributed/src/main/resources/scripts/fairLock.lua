@@ -0,0 +1,39 @@
+-- 公平分布式锁-加锁-lua
+-- KEYS[1] 锁，KEYS[2] 等待队列（zset，score 为排队号），KEYS[3] 排队号计数器，KEYS[4] 等待者的超时时间（zset，score 为超时时间戳）
+-- ARGV[1] 锁标识，ARGV[2] 锁的过期时间（毫秒），ARGV[3] 等待者超时时间（毫秒），ARGV[4] 当前时间戳（毫秒），ARGV[5] 唤醒频道
+-- 返回 0 表示获取到锁，否则返回当前在队列中的位置（从 1 开始）
+
+local owner = ARGV[1]
+local now = tonumber(ARGV[4])
+
+-- 清理超时没有再来续约的等待者，即已经放弃或者宕机的客户端
+local expired = redis.call('zrangebyscore', KEYS[4], '-inf', now)
+for i = 1, #expired do
+    redis.call('zrem', KEYS[2], expired[i])
+end
+redis.call('zremrangebyscore', KEYS[4], '-inf', now)
+
+-- 第一次来则领取排队号入队，之后的调用只是续约
+if not redis.call('zscore', KEYS[2], owner) then
+    redis.call('zadd', KEYS[2], redis.call('incr', KEYS[3]), owner)
+end
+
+local head = redis.call('zrange', KEYS[2], 0, 0)[1]
+if head == owner and redis.call('exists', KEYS[1]) == 0 then
+    redis.call('set', KEYS[1], owner, 'PX', ARGV[2])
+    redis.call('zrem', KEYS[2], owner)
+    redis.call('zrem', KEYS[4], owner)
+    if redis.call('zcard', KEYS[2]) == 0 then
+        redis.call('del', KEYS[3])
+    end
+    return 0
+end
+
+redis.call('zadd', KEYS[4], now + tonumber(ARGV[3]), owner)
+
+-- 锁空闲而队首不是自己，说明原来的队首刚被清理掉，唤醒新的队首
+if redis.call('exists', KEYS[1]) == 0 then
+    redis.call('publish', ARGV[5], head)
+end
+
+return redis.call('zrank', KEYS[2], owner) + 1
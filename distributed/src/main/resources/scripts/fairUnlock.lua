@@ -0,0 +1,23 @@
+-- 公平分布式锁-解锁-lua，等待超时放弃排队时也调用此脚本
+-- KEYS 与加锁脚本相同，ARGV[1] 锁标识，ARGV[2] 唤醒频道
+-- 返回 1 表示释放了锁，0 表示只是退出了队列
+
+local released = 0
+if redis.call('get', KEYS[1]) == ARGV[1] then
+    redis.call('del', KEYS[1])
+    released = 1
+end
+redis.call('zrem', KEYS[2], ARGV[1])
+redis.call('zrem', KEYS[4], ARGV[1])
+
+-- 锁空闲时只唤醒队首的一个等待者
+if redis.call('exists', KEYS[1]) == 0 then
+    local head = redis.call('zrange', KEYS[2], 0, 0)[1]
+    if head then
+        redis.call('publish', ARGV[2], head)
+    else
+        redis.call('del', KEYS[3])
+    end
+end
+
+return released
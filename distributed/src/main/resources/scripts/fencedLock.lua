@@ -0,0 +1,9 @@
+-- 分布式锁-加锁并发放 fencing token-lua
+-- KEYS[1] 锁，KEYS[2] 该锁的 token 计数器（与锁在同一个槽，且永不过期），ARGV[1] 锁标识，ARGV[2] 过期时间（毫秒）
+-- 加锁成功返回本次的 token，token 对同一个锁单调递增；失败返回 0
+
+if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', tonumber(ARGV[2])) then
+    return redis.call('incr', KEYS[2])
+else
+    return 0
+end
@@ -0,0 +1,37 @@
+-- 分布式限流-GCRA（通用信元速率算法）-lua
+-- KEYS[1] 理论到达时间 TAT（微秒时间戳），每个限流器只有这一个 key
+-- ARGV[1] 每个周期产生的令牌数，ARGV[2] 周期（毫秒），ARGV[3] 突发容量（最多积攒的令牌数），ARGV[4] 本次消耗的令牌数，
+-- ARGV[5] 当前时间戳（毫秒）
+-- 返回 {是否放行 1/0，剩余令牌数，多久之后可以重试（毫秒，放行时为 0，永远不可能放行时为 -1），多久之后令牌全部恢复（毫秒）}
+--
+-- GCRA 等价于令牌桶，但不需要保存令牌数和上次补充时间，只保存一个时间戳：每个令牌对应 emission 微秒，TAT 表示桶“空”到
+-- 什么时候为止，TAT 超出当前时间的部分不超过 burst 个令牌的时间就可以放行。
+
+local emission = tonumber(ARGV[2]) * 1000 / tonumber(ARGV[1])
+local burst = tonumber(ARGV[3])
+local cost = tonumber(ARGV[4])
+local now = tonumber(ARGV[5]) * 1000
+local tolerance = emission * burst
+
+if cost > burst then
+    return {0, 0, -1, 0}
+end
+
+local tat = tonumber(redis.call('get', KEYS[1]) or 0)
+if tat < now then
+    tat = now
+end
+
+local newTat = tat + emission * cost
+local allowAt = newTat - tolerance
+local diff = now - allowAt
+
+if diff < 0 then
+    local remaining = math.floor((now - (tat - tolerance)) / emission)
+    return {0, remaining, math.ceil(-diff / 1000), math.ceil((tat - now) / 1000)}
+end
+
+local resetAfter = newTat - now
+-- PX 必须大于 0，newTat 等于 now 时（如 emission 极小）至少保留 1 毫秒
+redis.call('set', KEYS[1], string.format('%.0f', newTat), 'PX', math.max(math.ceil(resetAfter / 1000), 1))
+return {1, math.floor(diff / emission), 0, math.ceil(resetAfter / 1000)}
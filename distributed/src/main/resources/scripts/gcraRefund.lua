@@ -0,0 +1,18 @@
+-- 分布式限流-GCRA 归还令牌-lua
+-- KEYS[1] 理论到达时间 TAT（微秒时间戳），ARGV[1] 每个周期产生的令牌数，ARGV[2] 周期（毫秒），ARGV[3] 归还的令牌数，
+-- ARGV[4] 当前时间戳（毫秒）
+-- 把 TAT 往回拨归还令牌对应的时间，不早于当前时间（桶满时多余的令牌直接丢弃），返回归还后 TAT 超出当前时间的毫秒数
+
+local tat = tonumber(redis.call('get', KEYS[1]) or 0)
+local now = tonumber(ARGV[4]) * 1000
+local emission = tonumber(ARGV[2]) * 1000 / tonumber(ARGV[1])
+
+local newTat = tat - emission * tonumber(ARGV[3])
+if newTat <= now then
+    redis.call('del', KEYS[1])
+    return 0
+end
+
+local resetAfter = math.ceil((newTat - now) / 1000)
+redis.call('set', KEYS[1], string.format('%.0f', newTat), 'PX', resetAfter)
+return resetAfter
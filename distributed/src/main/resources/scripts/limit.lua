@@ -1,25 +1,34 @@
+-- 分布式限流-滑动窗口-lua
+-- KEYS[1] 限流计数（hash，field 为子窗口编号，value 为该子窗口内的请求数）
+-- ARGV[1] 窗口内允许的请求数，ARGV[2] 窗口大小（毫秒），ARGV[3] 子窗口数，ARGV[4] 当前时间戳（毫秒）
+-- 通过返回窗口内（含本次）的请求数，被限流返回 0
 
-
-// 分布式限流 lua，下标从 1 开始
-
-// 限流 key
-local key = KEYS[1]
-
-//限流大小，限流的数量
 local limit = tonumber(ARGV[1])
+local window = tonumber(ARGV[2])
+local bucketMillis = math.max(math.floor(window / tonumber(ARGV[3])), 1)
+local now = tonumber(ARGV[4])
+
+local current = math.floor(now / bucketMillis)
+-- 统计覆盖 [now - window, now] 的所有子窗口，包括 now - window 所在的那个不完整的子窗口。
+-- 这样任意一段长度为 window 的时间内通过的请求都不会超过 limit，代价是在子窗口边界上可能提前最多一个子窗口限流
+local oldest = math.floor((now - window) / bucketMillis)
+
+local count = 0
+local buckets = redis.call('hgetall', KEYS[1])
+for i = 1, #buckets, 2 do
+    local bucket = tonumber(buckets[i])
+    if bucket < oldest then
+        redis.call('hdel', KEYS[1], buckets[i])
+    else
+        count = count + tonumber(buckets[i + 1])
+    end
+end
 
-// 获取当前流量大小，然后判断其值是否为nil，如果为nil的话需要赋值为0
-local curentLimit = tonumber(redis.call('get', key) or "0")
-
-// 然后进行加 1 并且和 limit 进行比对，如果大于 limt 即返回0，说明限流了
-if curentLimit + 1 > limit then return 0;
-
-// 如果小于 limit 则需要使用 Redis的 INCRBY key 1,就是将key进行加 1 命令
-else
-   redis.call("INCRBY", key, 1)
-
-   // 并且设置超时时间，超时时间是秒，并且如果有需要的话这个秒也是可以用参数进行设置，EXPIRE后边的单位是秒
-   redis.call("EXPIRE", key, 10)
-
-   return curentLimit + 1
+if count + 1 > limit then
+    return 0
 end
+
+redis.call('hincrby', KEYS[1], current, 1)
+-- 过期时间只需要覆盖一个窗口，没有请求时 key 会自动删除
+redis.call('pexpire', KEYS[1], window + bucketMillis)
+return count + 1
@@ -0,0 +1,40 @@
+-- 分布式限流-滑动窗口-多个限流器一起检查-lua
+-- KEYS 所有限流计数（与 limit.lua 相同的 hash），ARGV[1] 子窗口数，ARGV[2] 当前时间戳（毫秒），
+-- 之后每个 key 两个参数：ARGV[2i+1] 窗口内允许的请求数，ARGV[2i+2] 窗口大小（毫秒）
+-- 全部通过才计数，有一个被限流则都不计数。全部通过返回 0，否则返回第一个被限流的 key 的序号（从 1 开始）
+-- 注意：redis 集群下所有 key 必须在同一个槽
+
+local subWindows = tonumber(ARGV[1])
+local now = tonumber(ARGV[2])
+
+-- 统计一个 key 最近一个窗口内的请求数，清理滑出窗口的子窗口，返回请求数和当前子窗口编号
+local function count(key, window)
+    local bucketMillis = math.max(math.floor(window / subWindows), 1)
+    local oldest = math.floor((now - window) / bucketMillis)
+    local total = 0
+    local buckets = redis.call('hgetall', key)
+    for i = 1, #buckets, 2 do
+        if tonumber(buckets[i]) < oldest then
+            redis.call('hdel', key, buckets[i])
+        else
+            total = total + tonumber(buckets[i + 1])
+        end
+    end
+    return total, math.floor(now / bucketMillis), bucketMillis
+end
+
+local current = {}
+for i = 1, #KEYS do
+    local window = tonumber(ARGV[2 * i + 2])
+    local total, bucket, bucketMillis = count(KEYS[i], window)
+    if total + 1 > tonumber(ARGV[2 * i + 1]) then
+        return i
+    end
+    current[i] = {bucket, window + bucketMillis}
+end
+
+for i = 1, #KEYS do
+    redis.call('hincrby', KEYS[i], current[i][1], 1)
+    redis.call('pexpire', KEYS[i], current[i][2])
+end
+return 0
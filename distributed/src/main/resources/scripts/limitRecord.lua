@@ -0,0 +1,12 @@
+-- 分布式限流-滑动窗口-补记请求数-lua
+-- KEYS[1] 限流计数（与 limit.lua 相同的 hash），ARGV[1] 补记的请求数，ARGV[2] 窗口大小（毫秒），ARGV[3] 子窗口数，
+-- ARGV[4] 当前时间戳（毫秒）
+-- 把 redis 不可用期间本地放行的请求数计入当前子窗口，不检查限制，返回当前子窗口的请求数
+
+local window = tonumber(ARGV[2])
+local bucketMillis = math.max(math.floor(window / tonumber(ARGV[3])), 1)
+local current = math.floor(tonumber(ARGV[4]) / bucketMillis)
+
+local count = redis.call('hincrby', KEYS[1], current, tonumber(ARGV[1]))
+redis.call('pexpire', KEYS[1], window + bucketMillis)
+return count
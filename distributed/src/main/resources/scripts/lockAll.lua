@@ -0,0 +1,15 @@
+-- 分布式锁-批量加锁-lua，要么全部加锁成功，要么一个都不加
+-- KEYS 为所有的锁（redis 集群下需要使用相同的 {hash tag}），ARGV[1] 锁标识，ARGV[2] 过期时间（毫秒）
+-- 返回 1 表示全部加锁成功，0 表示有锁被他人持有
+
+for i = 1, #KEYS do
+    local value = redis.call('get', KEYS[i])
+    if value and value ~= ARGV[1] then
+        return 0
+    end
+end
+
+for i = 1, #KEYS do
+    redis.call('set', KEYS[i], ARGV[1], 'PX', ARGV[2])
+end
+return 1
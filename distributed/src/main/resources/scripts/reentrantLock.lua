@@ -0,0 +1,11 @@
+-- 可重入分布式锁-加锁-lua
+-- KEYS[1] 锁（hash，field 为持有者标识，value 为重入次数），ARGV[1] 持有者标识，ARGV[2] 过期时间（毫秒）
+-- 锁不存在或者持有者是自己时，重入次数加 1 并设置过期时间，返回重入次数；否则返回 0
+
+if redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[1]) == 1 then
+    local count = redis.call('hincrby', KEYS[1], ARGV[1], 1)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return count
+else
+    return 0
+end
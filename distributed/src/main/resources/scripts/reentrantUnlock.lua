@@ -0,0 +1,16 @@
+-- 可重入分布式锁-解锁-lua
+-- KEYS[1] 锁，ARGV[1] 持有者标识，ARGV[2] 释放的重入次数，ARGV[3] 释放通知的频道
+-- 持有者不是自己返回 -1；重入次数减到 0 时删除锁并发布释放消息，返回剩余的重入次数
+
+if redis.call('hexists', KEYS[1], ARGV[1]) == 0 then
+    return -1
+end
+
+local count = redis.call('hincrby', KEYS[1], ARGV[1], -tonumber(ARGV[2]))
+if count > 0 then
+    return count
+end
+
+redis.call('del', KEYS[1])
+redis.call('publish', ARGV[3], ARGV[1])
+return 0
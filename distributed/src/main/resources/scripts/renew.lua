@@ -0,0 +1,16 @@
+-- 分布式锁-批量续期-lua
+-- KEYS 为本 JVM 持有的所有锁，ARGV[i] 为 KEYS[i] 的锁标识，最后一个参数为续期后的过期时间（毫秒）
+-- 返回每个锁是否续期成功，0 表示锁已经不属于自己（已过期或被他人获取）
+
+local expire = ARGV[#KEYS + 1]
+local result = {}
+
+for i = 1, #KEYS do
+    if redis.call('get', KEYS[i]) == ARGV[i] then
+        result[i] = redis.call('pexpire', KEYS[i], expire)
+    else
+        result[i] = 0
+    end
+end
+
+return result
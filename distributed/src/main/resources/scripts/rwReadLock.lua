@@ -0,0 +1,21 @@
+-- 分布式读写锁-加读锁-lua
+-- KEYS[1] 写锁，KEYS[2] 读者（zset，score 为该读者租约的过期时间戳），KEYS[3] 等待中的写者（写意向）
+-- ARGV[1] 读者标识，ARGV[2] 租约时间（毫秒），ARGV[3] 当前时间戳（毫秒）
+-- 返回 1 表示获取到读锁，0 表示有写者持有或者正在等待
+
+-- 清理租约已过期的读者
+redis.call('zremrangebyscore', KEYS[2], '-inf', ARGV[3])
+
+-- 写优先：有写者在等待时新的读者也不能进入，避免写者饥饿
+if redis.call('exists', KEYS[1]) == 1 or redis.call('exists', KEYS[3]) == 1 then
+    return 0
+end
+
+local lease = tonumber(ARGV[2])
+redis.call('zadd', KEYS[2], tonumber(ARGV[3]) + lease, ARGV[1])
+
+-- zset 本身的过期时间只延长不缩短，保证不早于其中最晚过期的读者
+if redis.call('pttl', KEYS[2]) < lease then
+    redis.call('pexpire', KEYS[2], lease)
+end
+return 1
@@ -0,0 +1,26 @@
+-- 分布式读写锁-解锁-lua，读锁、写锁以及放弃等待的写者都调用此脚本
+-- KEYS 与加读锁脚本相同，ARGV[1] 读者或者写者的标识，ARGV[2] 唤醒频道
+-- 返回 1 表示释放了锁
+
+local owner = ARGV[1]
+local released = 0
+
+if redis.call('get', KEYS[1]) == owner then
+    redis.call('del', KEYS[1])
+    redis.call('publish', ARGV[2], owner)
+    released = 1
+elseif redis.call('zrem', KEYS[2], owner) == 1 then
+    -- 最后一个读者退出时才需要唤醒等待的写者
+    if redis.call('zcard', KEYS[2]) == 0 then
+        redis.call('publish', ARGV[2], owner)
+    end
+    released = 1
+end
+
+-- 放弃等待的写者撤销写意向，唤醒被它挡住的读者
+if redis.call('get', KEYS[3]) == owner then
+    redis.call('del', KEYS[3])
+    redis.call('publish', ARGV[2], owner)
+end
+
+return released
@@ -0,0 +1,25 @@
+-- 分布式读写锁-加写锁-lua
+-- KEYS 与加读锁脚本相同
+-- ARGV[1] 写者标识，ARGV[2] 租约时间（毫秒），ARGV[3] 当前时间戳（毫秒），ARGV[4] 写意向的过期时间（毫秒）
+-- 返回 1 表示获取到写锁，0 表示需要等待
+
+local owner = ARGV[1]
+redis.call('zremrangebyscore', KEYS[2], '-inf', ARGV[3])
+
+-- 已经有别的写者在等待，排在它后面
+local intent = redis.call('get', KEYS[3])
+if intent and intent ~= owner then
+    return 0
+end
+
+if redis.call('exists', KEYS[1]) == 0 and redis.call('zcard', KEYS[2]) == 0 then
+    redis.call('set', KEYS[1], owner, 'PX', ARGV[2])
+    if intent then
+        redis.call('del', KEYS[3])
+    end
+    return 1
+end
+
+-- 登记写意向，阻止新的读者进入，等待当前的读者和写者退出。写者每次重试都会续期，放弃后自动过期
+redis.call('set', KEYS[3], owner, 'PX', ARGV[4])
+return 0
@@ -0,0 +1,24 @@
+-- 分布式信号量-获取许可-lua
+-- KEYS[1] 持有者（zset，member 为许可标识，score 为该许可租约的过期时间戳）
+-- ARGV[1] 许可总数，ARGV[2] 租约时间（毫秒），ARGV[3] 当前时间戳（毫秒），ARGV[4...] 本次要获取的许可标识
+-- 剩余许可足够时一次获取全部，返回 1；否则一个都不获取，返回 0
+
+-- 回收租约已过期的许可（持有者宕机或者忘记释放）
+redis.call('zremrangebyscore', KEYS[1], '-inf', ARGV[3])
+
+local permits = #ARGV - 3
+if redis.call('zcard', KEYS[1]) + permits > tonumber(ARGV[1]) then
+    return 0
+end
+
+local lease = tonumber(ARGV[2])
+local expireAt = tonumber(ARGV[3]) + lease
+for i = 4, #ARGV do
+    redis.call('zadd', KEYS[1], expireAt, ARGV[i])
+end
+
+-- zset 本身的过期时间只延长不缩短，保证不早于其中最晚过期的许可
+if redis.call('pttl', KEYS[1]) < lease then
+    redis.call('pexpire', KEYS[1], lease)
+end
+return 1
@@ -0,0 +1,13 @@
+-- 分布式信号量-释放许可-lua
+-- KEYS[1] 持有者，ARGV[1] 唤醒频道，ARGV[2...] 要释放的许可标识
+-- 返回实际释放的许可数，已经过期被回收的许可不计入
+
+local released = 0
+for i = 2, #ARGV do
+    released = released + redis.call('zrem', KEYS[1], ARGV[i])
+end
+
+if released > 0 then
+    redis.call('publish', ARGV[1], released)
+end
+return released
@@ -0,0 +1,19 @@
+-- 分布式信号量-续期许可-lua
+-- KEYS[1] 持有者，ARGV[1] 租约时间（毫秒），ARGV[2] 当前时间戳（毫秒），ARGV[3...] 要续期的许可标识
+-- 只续期仍然有效的许可，已经过期（可能已被回收、许可已被别人获取）的不再续期，返回续期成功的许可数
+
+local now = tonumber(ARGV[2])
+local lease = tonumber(ARGV[1])
+local renewed = 0
+for i = 3, #ARGV do
+    local expireAt = redis.call('zscore', KEYS[1], ARGV[i])
+    if expireAt and tonumber(expireAt) > now then
+        redis.call('zadd', KEYS[1], now + lease, ARGV[i])
+        renewed = renewed + 1
+    end
+end
+
+if renewed > 0 and redis.call('pttl', KEYS[1]) < lease then
+    redis.call('pexpire', KEYS[1], lease)
+end
+return renewed
@@ -0,0 +1,11 @@
+-- 分段库存-扣减-lua
+-- KEYS[1] 库存分段，ARGV[1] 需要扣减的数量
+-- 返回实际扣减的数量，分段库存不足时扣减剩余的全部，由调用方向相邻分段借
+
+local stock = tonumber(redis.call('get', KEYS[1]) or '0')
+local take = math.min(stock, tonumber(ARGV[1]))
+
+if take > 0 then
+    redis.call('decrby', KEYS[1], take)
+end
+return take
@@ -0,0 +1,11 @@
+-- 分布式锁-批量解锁-lua
+-- KEYS 为所有的锁，ARGV[1] 锁标识
+-- 返回实际释放的锁数量，只删除值等于锁标识的锁
+
+local count = 0
+for i = 1, #KEYS do
+    if redis.call('get', KEYS[i]) == ARGV[1] then
+        count = count + redis.call('del', KEYS[i])
+    end
+end
+return count
@@ -0,0 +1,11 @@
+-- 分布式锁-解锁并通知-lua
+-- KEYS[1] 锁，ARGV[1] 锁标识，ARGV[2] 释放通知的频道
+-- 判断是自己的锁才删除，删除成功后向该锁的频道发布释放消息，唤醒所有节点上等待这个锁的线程
+
+if redis.call('get', KEYS[1]) == ARGV[1] then
+    redis.call('del', KEYS[1])
+    redis.call('publish', ARGV[2], ARGV[1])
+    return 1
+else
+    return 0
+end
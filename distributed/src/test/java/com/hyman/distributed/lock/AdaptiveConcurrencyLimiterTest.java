@@ -0,0 +1,147 @@
+package com.hyman.distributed.lock;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * 一轮：按当前上限同时进入尽可能多的请求，再逐个结束，响应时间由结束时的并发数决定
+     */
+    private static void round(AdaptiveConcurrencyLimiter limiter, IntToLongFunction rtt, boolean dropped) {
+        int entered = 0;
+        while (limiter.tryAcquire()) {
+            entered++;
+        }
+        for (int i = 0; i < entered; i++) {
+            limiter.release(rtt.applyAsLong(limiter.getInflight()), dropped);
+        }
+    }
+
+    private static void rounds(AdaptiveConcurrencyLimiter limiter, int count, IntToLongFunction rtt) {
+        for (int i = 0; i < count; i++) {
+            round(limiter, rtt, false);
+        }
+    }
+
+    /**
+     * 持续过载：始终按当前上限保持尽可能多的请求在执行，每结束一个立即补充，并发不会降下来
+     */
+    private static void sustained(AdaptiveConcurrencyLimiter limiter, int samples, IntToLongFunction rtt) {
+        for (int i = 0; i < samples; i++) {
+            while (limiter.tryAcquire()) {
+                // 补满
+            }
+            limiter.release(rtt.applyAsLong(limiter.getInflight()), false);
+        }
+    }
+
+    /**
+     * 第一个样本作为无负载的响应时间
+     */
+    private static AdaptiveConcurrencyLimiter limiter(int initialLimit) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", initialLimit, 1, 100);
+        assertThat(limiter.tryAcquire()).isTrue();
+        limiter.release(FAST, false);
+        return limiter;
+    }
+
+    @Test
+    void growsWhileResponseTimeStaysAtNoLoad() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+        rounds(limiter, 5, inflight -> FAST);
+        assertThat(limiter.getLimit()).isGreaterThan(10);
+    }
+
+    @Test
+    void shrinksWhenRequestsQueue() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20);
+        rounds(limiter, 5, inflight -> SLOW);
+        assertThat(limiter.getLimit()).isLessThan(20);
+    }
+
+    @Test
+    void shrinksOnDroppedRequests() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20);
+        round(limiter, inflight -> FAST, true);
+        assertThat(limiter.getLimit()).isLessThan(20);
+        for (int i = 0; i < 50; i++) {
+            round(limiter, inflight -> FAST, true);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(1);
+    }
+
+    @Test
+    void neverExceedsCeiling() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10);
+        limiter.setCeiling(12);
+        rounds(limiter, 20, inflight -> FAST);
+        assertThat(limiter.getLimit()).isEqualTo(12);
+
+        limiter.setCeiling(5);
+        assertThat(limiter.getLimit()).isEqualTo(5);
+        rounds(limiter, 20, inflight -> FAST);
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    /**
+     * 下游并发达到 2 就排队。持续过载时重新探测不能把有负载的响应时间当成无负载的，否则上限会越调越大
+     */
+    @Test
+    void probingUnderSustainedLoadDoesNotRaiseTheBaseline() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20);
+        IntToLongFunction saturated = inflight -> inflight < 2 ? FAST : SLOW;
+        int maxAfterSettled = 0;
+        for (int i = 0; i < 5_000; i++) {
+            sustained(limiter, 1, saturated);
+            if (i >= 500) {
+                maxAfterSettled = Math.max(maxAfterSettled, limiter.getLimit());
+            }
+        }
+        assertThat(limiter.getRttNoLoadMicros()).isEqualTo(1000);
+        assertThat(maxAfterSettled).isLessThan(20);
+    }
+
+    /**
+     * 下游永久变慢后，探测得到新的无负载响应时间
+     */
+    @Test
+    void probingPicksUpPermanentSlowdown() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20);
+        sustained(limiter, 2_000, inflight -> SLOW);
+        assertThat(limiter.getRttNoLoadMicros()).isEqualTo(10_000);
+    }
+
+    @Test
+    void countsEveryConcurrentRejection() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 1);
+        assertThat(limiter.tryAcquire()).isTrue();
+
+        int threads = 8;
+        int attempts = 10_000;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                for (int j = 0; j < attempts; j++) {
+                    limiter.tryAcquire();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertThat(limiter.getRejected()).isEqualTo((long) threads * attempts);
+    }
+}
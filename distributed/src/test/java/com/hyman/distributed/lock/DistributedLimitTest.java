@@ -0,0 +1,107 @@
+package com.hyman.distributed.lock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DistributedLimitTest extends RedisTestSupport {
+
+    private LimitFallback fallback;
+    private DistributedLimit distributedLimit;
+
+    @BeforeEach
+    void setUp() {
+        fallback = new LimitFallback();
+        ReflectionTestUtils.setField(fallback, "scriptRegistry", scriptRegistry);
+        ReflectionTestUtils.setField(fallback, "nodeCount", 1);
+        ReflectionTestUtils.setField(fallback, "failureThreshold", 5);
+        ReflectionTestUtils.setField(fallback, "openMillis", 5000L);
+        fallback.start();
+
+        distributedLimit = new DistributedLimit();
+        ReflectionTestUtils.setField(distributedLimit, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(distributedLimit, "scriptRegistry", scriptRegistry);
+        ReflectionTestUtils.setField(distributedLimit, "fallback", fallback);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fallback.stop();
+    }
+
+    @Test
+    void rateLimitAllowsBurstThenRejectsWithRetryAfter() {
+        String key = uniqueName("test:gcra");
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(distributedLimit.rateLimit(key, 1, 1, TimeUnit.SECONDS, 5, 1).isAllowed()).isTrue();
+        }
+        DistributedLimit.RateLimitResult rejected = distributedLimit.rateLimit(key, 1, 1, TimeUnit.SECONDS, 5, 1);
+        assertThat(rejected.isAllowed()).isFalse();
+        assertThat(rejected.getRetryAfterMillis()).isBetween(1L, 1000L);
+        // redis 正常，没有降级
+        assertThat(fallback.isOpen()).isFalse();
+    }
+
+    /**
+     * 速率很高时一个令牌对应的时间不到 1 毫秒，TAT 的过期时间仍然必须大于 0，脚本不能报错
+     */
+    @Test
+    void rateLimitWithSubMillisecondEmission() {
+        String key = uniqueName("test:gcra");
+
+        assertThat(distributedLimit.rateLimit(key, 1_000_000, 1, TimeUnit.SECONDS, 10, 1).isAllowed()).isTrue();
+        assertThat(redisTemplate.getExpire(key, TimeUnit.MILLISECONDS)).isNotEqualTo(-1L);
+        assertThat(fallback.isOpen()).isFalse();
+    }
+
+    @Test
+    void rateLimitRejectsNonPositiveCost() {
+        assertThatThrownBy(() -> distributedLimit.prepareRateLimit("test:gcra", 10, 1, TimeUnit.SECONDS, 10, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> distributedLimit.prepareRateLimit("test:gcra", 0, 1, TimeUnit.SECONDS, 10, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void checkAllCountsNothingWhenOneLimiterRejects() {
+        assertAllOrNothing();
+    }
+
+    /**
+     * redis 集群下 key 不在同一个槽时的逐个检查，被拒绝时已经计数的限流器要减回去
+     */
+    @Test
+    void checkAllPerKeyFallbackIsAllOrNothing() {
+        ReflectionTestUtils.setField(distributedLimit, "crossSlot", true);
+        assertAllOrNothing();
+    }
+
+    private void assertAllOrNothing() {
+        LimitSpec user = LimitSpec.of(uniqueName("test:user"), 5, 10, TimeUnit.SECONDS);
+        LimitSpec global = LimitSpec.of(uniqueName("test:global"), 1, 10, TimeUnit.SECONDS);
+        List<LimitSpec> specs = Arrays.asList(user, global);
+
+        assertThat(distributedLimit.checkAll(specs)).isTrue();
+        assertThat(distributedLimit.checkAll(specs)).isFalse();
+        assertThat(distributedLimit.checkAll(specs)).isFalse();
+
+        // 全局限流器拒绝的两次，用户限流器都没有计数
+        assertThat(count(user)).isEqualTo(1);
+        assertThat(count(global)).isEqualTo(1);
+        assertThat(fallback.isOpen()).isFalse();
+    }
+
+    private static long count(LimitSpec spec) {
+        return redisTemplate.<String, String>opsForHash().values(spec.getRedisKey()).stream()
+                .mapToLong(Long::parseLong).sum();
+    }
+}
@@ -0,0 +1,39 @@
+package com.hyman.distributed.lock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DistributedLock2Test extends RedisTestSupport {
+
+    private LockWatchdog watchdog;
+    private DistributedLock2 lock2;
+
+    @BeforeEach
+    void setUp() {
+        watchdog = newWatchdog(3000);
+        lock2 = newLock2(watchdog);
+    }
+
+    @AfterEach
+    void tearDown() {
+        watchdog.stop();
+    }
+
+    @Test
+    void fencingTokenIncreasesAcrossHolders() {
+        String key = uniqueName("test:fenced");
+
+        long first = lock2.fencedLock(key, "a");
+        assertThat(first).isPositive();
+        // 锁被占用时不发放 token
+        assertThat(lock2.fencedLock(key, "b")).isZero();
+        lock2.distributedUnlock(key, "a");
+
+        long second = lock2.fencedLock(key, "b");
+        assertThat(second).isGreaterThan(first);
+        lock2.distributedUnlock(key, "b");
+    }
+}
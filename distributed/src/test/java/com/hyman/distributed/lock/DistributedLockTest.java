@@ -0,0 +1,94 @@
+package com.hyman.distributed.lock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DistributedLockTest extends RedisTestSupport {
+
+    private DistributedLock lock;
+
+    @BeforeEach
+    void setUp() {
+        lock = new DistributedLock(jedisPool, scriptRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        lock.shutdown();
+    }
+
+    @Test
+    void lockIsExclusiveUntilReleased() {
+        String name = uniqueName("test:lock");
+
+        String identifier = lock.lockWithTimeout(name, 0, 10_000);
+        assertThat(identifier).isNotNull();
+        assertThat(lock.lockWithTimeout(name, 50, 10_000)).isNull();
+        // 标识不对不能解锁
+        assertThat(lock.releaseLock(name, "other")).isFalse();
+
+        assertThat(lock.releaseLock(name, identifier)).isTrue();
+        String next = lock.lockWithTimeout(name, 0, 10_000);
+        assertThat(next).isNotNull();
+        lock.releaseLock(name, next);
+    }
+
+    /**
+     * 等待者靠释放通知唤醒，而不是兜底轮询：多轮的平均唤醒延迟明显小于轮询间隔
+     */
+    @Test
+    void waiterWakesOnReleaseNotification() throws Exception {
+        int rounds = 5;
+        long totalDelay = 0;
+        for (int i = 0; i < rounds; i++) {
+            String name = uniqueName("test:wake");
+            String identifier = lock.lockWithTimeout(name, 0, 10_000);
+            assertThat(identifier).isNotNull();
+
+            CompletableFuture<Long> acquiredAt = CompletableFuture.supplyAsync(() -> {
+                String waiter = lock.lockWithTimeout(name, 5_000, 10_000);
+                long now = System.nanoTime();
+                if (waiter != null) {
+                    lock.releaseLock(name, waiter);
+                }
+                return waiter == null ? -1L : now;
+            });
+            // 等待者已经进入阻塞等待
+            TimeUnit.MILLISECONDS.sleep(300);
+
+            long releasedAt = System.nanoTime();
+            assertThat(lock.releaseLock(name, identifier)).isTrue();
+            long wokeAt = acquiredAt.get(5, TimeUnit.SECONDS);
+            assertThat(wokeAt).isPositive();
+            totalDelay += TimeUnit.NANOSECONDS.toMillis(wokeAt - releasedAt);
+        }
+        assertThat(totalDelay / rounds).isLessThan(40);
+    }
+
+    @Test
+    void reentrantLockCountsNestedAcquires() {
+        String name = uniqueName("test:reentrant");
+
+        assertThat(lock.lockReentrant(name, 0, 10_000)).isTrue();
+        assertThat(lock.lockReentrant(name, 0, 10_000)).isTrue();
+        assertThat(lock.releaseReentrant(name)).isTrue();
+
+        // 还有一次重入没有释放，其他线程拿不到
+        assertThat(CompletableFuture.supplyAsync(() -> lock.lockReentrant(name, 50, 10_000)).join()).isFalse();
+
+        assertThat(lock.releaseReentrant(name)).isTrue();
+        assertThat(CompletableFuture.supplyAsync(() -> {
+            boolean locked = lock.lockReentrant(name, 0, 10_000);
+            if (locked) {
+                lock.releaseReentrant(name);
+            }
+            return locked;
+        }).join()).isTrue();
+    }
+}
@@ -0,0 +1,143 @@
+package com.hyman.distributed.lock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 混合限流：redis 的令牌桶由 mock 代替，记录每次租用、归还的令牌数
+ */
+class HybridLimiterTest {
+
+    private static final long LEASE_MILLIS = 200;
+
+    /**
+     * 每次租用的令牌数，以及调用的线程
+     */
+    private final List<Long> leases = new CopyOnWriteArrayList<>();
+    private final List<String> leaseThreads = new CopyOnWriteArrayList<>();
+    private final List<Long> refunds = new CopyOnWriteArrayList<>();
+
+    /**
+     * 为 null 时每次都放行
+     */
+    private volatile DistributedLimit.RateLimitResult redisResult;
+
+    private HybridLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        DistributedLimit distributedLimit = Mockito.mock(DistributedLimit.class, invocation -> {
+            String method = invocation.getMethod().getName();
+            if ("rateLimit".equals(method)) {
+                leases.add(invocation.getArgument(5));
+                leaseThreads.add(Thread.currentThread().getName());
+                return redisResult != null ? redisResult : new DistributedLimit.RateLimitResult(true, 100, 0, 0);
+            }
+            if ("refund".equals(method)) {
+                refunds.add(invocation.getArgument(4));
+            }
+            return null;
+        });
+        limiter = new HybridLimiter();
+        ReflectionTestUtils.setField(limiter, "distributedLimit", distributedLimit);
+        ReflectionTestUtils.setField(limiter, "batchRatio", 0.1);
+        ReflectionTestUtils.setField(limiter, "leaseMillis", LEASE_MILLIS);
+        limiter.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        limiter.stop();
+    }
+
+    private boolean acquire(String key) {
+        return limiter.tryAcquire(key, 100, 1, TimeUnit.SECONDS, 100);
+    }
+
+    /**
+     * 每次从 redis 租一批（每个周期令牌数的 10%），批内的请求不访问 redis
+     */
+    @Test
+    void leasesTokensInBatches() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(acquire("batch")).isTrue();
+        }
+        assertThat(leases).containsExactly(10L);
+    }
+
+    /**
+     * 本地令牌低于批量的 20% 时在后台线程补充，请求线程不等待
+     */
+    @Test
+    void refillsAsynchronouslyBeforeRunningOut() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            assertThat(acquire("refill")).isTrue();
+        }
+        await(() -> leases.size() == 2);
+        assertThat(leaseThreads.get(1)).isEqualTo("redis-limit-refill");
+
+        // 剩余 2 个加上补充的 10 个，都不需要再同步访问 redis
+        for (int i = 0; i < 10; i++) {
+            assertThat(acquire("refill")).isTrue();
+        }
+        assertThat(leaseThreads.stream().filter(name -> !"redis-limit-refill".equals(name))).hasSize(1);
+    }
+
+    /**
+     * 到期没有用完的令牌归还给 redis，之后这个 key 从本地移除
+     */
+    @Test
+    void refundsUnusedTokensOnExpiryAndForgetsIdleKeys() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertThat(acquire("caller:" + i)).isTrue();
+        }
+        assertThat(limiter.getBucketCount()).isEqualTo(100);
+
+        await(() -> limiter.getBucketCount() == 0);
+        assertThat(refunds).hasSize(100).containsOnly(9L);
+
+        // 移除后再次访问重新租用
+        assertThat(acquire("caller:0")).isTrue();
+        assertThat(leases).hasSize(101);
+    }
+
+    /**
+     * 全局令牌用完后，在 redis 返回的重试时间之前直接拒绝，不再访问 redis
+     */
+    @Test
+    void rejectsLocallyUntilRetryAfter() throws Exception {
+        redisResult = new DistributedLimit.RateLimitResult(false, 0, 300, 0);
+        assertThat(acquire("blocked")).isFalse();
+        for (int i = 0; i < 10; i++) {
+            assertThat(acquire("blocked")).isFalse();
+        }
+        assertThat(leases).hasSize(1);
+        // 等待重试时间期间不会被移除
+        TimeUnit.MILLISECONDS.sleep(LEASE_MILLIS);
+        assertThat(limiter.getBucketCount()).isEqualTo(1);
+
+        redisResult = null;
+        await(() -> acquire("blocked"));
+        assertThat(leases).hasSize(2);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("等待超时");
+            }
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.hyman.distributed.lock;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LeaseSupportTest {
+
+    private final LocalLockProvider provider = new LocalLockProvider();
+
+    /**
+     * 等待线程和排队都满了之后，新的异步加锁立即异常完成，不会再创建线程
+     */
+    @Test
+    void asyncLockFailsFastWhenSaturated() {
+        LockLease held = provider.tryLock("saturated");
+        assertThat(held).isNotNull();
+
+        List<CompletableFuture<LockLease>> waiting = new ArrayList<>();
+        for (int i = 0; i < LeaseSupport.ASYNC_MAX_THREADS + LeaseSupport.ASYNC_QUEUE; i++) {
+            waiting.add(provider.lockAsync("saturated", 300));
+        }
+        CompletableFuture<LockLease> rejected = provider.lockAsync("saturated", 300);
+        assertThatThrownBy(rejected::join).isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+
+        // 排队的请求从调用时开始计时，锁一直被占用时都按时以 null 完成
+        long start = System.currentTimeMillis();
+        for (CompletableFuture<LockLease> future : waiting) {
+            assertThat(future.join()).isNull();
+        }
+        assertThat(System.currentTimeMillis() - start).isLessThan(TimeUnit.SECONDS.toMillis(2));
+        held.release();
+    }
+
+    @Test
+    void asyncLockCompletesWhenReleased() {
+        LockLease held = provider.tryLock("handoff");
+        CompletableFuture<LockLease> next = provider.lockAsync("handoff", 5_000);
+        assertThat(next).isNotDone();
+
+        held.release();
+        LockLease lease = next.join();
+        assertThat(lease).isNotNull();
+        lease.release();
+    }
+}
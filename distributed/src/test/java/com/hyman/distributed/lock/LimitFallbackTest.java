@@ -0,0 +1,169 @@
+package com.hyman.distributed.lock;
+
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 熔断和降级：redis 由 mock 代替，可以随时切换为不可用
+ */
+class LimitFallbackTest {
+
+    private static final long OPEN_MILLIS = 200;
+
+    private volatile boolean redisDown;
+    private volatile boolean clusterMode;
+
+    /**
+     * 调用过的脚本名
+     */
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+
+    private LimitFallback fallback;
+    private DistributedLimit distributedLimit;
+
+    @BeforeEach
+    void setUp() {
+        RedisScriptRegistry scriptRegistry = Mockito.mock(RedisScriptRegistry.class, invocation -> {
+            if (!invocation.getMethod().getName().startsWith("execute")) {
+                return null;
+            }
+            String script = invocation.getArgument(0);
+            calls.add(script);
+            if (redisDown) {
+                throw new RedisConnectionFailureException("redis down");
+            }
+            if (clusterMode && "limitAll".equals(script)) {
+                throw new InvalidDataAccessApiUsageException("CROSSSLOT Keys in request don't hash to the same slot");
+            }
+            return 1L;
+        });
+
+        fallback = new LimitFallback();
+        ReflectionTestUtils.setField(fallback, "scriptRegistry", scriptRegistry);
+        ReflectionTestUtils.setField(fallback, "nodeCount", 1);
+        ReflectionTestUtils.setField(fallback, "failureThreshold", 5);
+        ReflectionTestUtils.setField(fallback, "openMillis", OPEN_MILLIS);
+        fallback.start();
+
+        distributedLimit = new DistributedLimit();
+        ReflectionTestUtils.setField(distributedLimit, "scriptRegistry", scriptRegistry);
+        ReflectionTestUtils.setField(distributedLimit, "fallback", fallback);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fallback.stop();
+    }
+
+    @Test
+    void breakerOpensAfterConsecutiveFailuresAndRecoversAfterProbe() throws Exception {
+        DistributedLimit.PreparedLimit prepared = distributedLimit.prepareLimit("k", 3, 10, TimeUnit.SECONDS);
+        redisDown = true;
+
+        // 每次失败都降级为本地令牌桶：容量 3，前 3 次放行
+        for (int i = 0; i < 5; i++) {
+            assertThat(distributedLimit.distributedLimit(prepared)).isEqualTo(i < 3);
+        }
+        assertThat(fallback.isOpen()).isTrue();
+        assertThat(calls).hasSize(5);
+
+        // 熔断期间不再访问 redis
+        assertThat(distributedLimit.distributedLimit(prepared)).isFalse();
+        assertThat(calls).hasSize(5);
+
+        // 熔断到期后只放一个请求去探测，探测成功后恢复，并把本地放行的请求数写回 redis
+        TimeUnit.MILLISECONDS.sleep(OPEN_MILLIS + 50);
+        redisDown = false;
+        assertThat(distributedLimit.distributedLimit(prepared)).isTrue();
+        assertThat(fallback.isOpen()).isFalse();
+
+        long deadline = System.currentTimeMillis() + 2_000;
+        while (!calls.contains("limitRecord") && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(calls).containsSubsequence("limit", "limitRecord");
+    }
+
+    @Test
+    void failedProbeKeepsBreakerOpen() throws Exception {
+        DistributedLimit.PreparedLimit prepared = distributedLimit.prepareLimit("k", 100, 10, TimeUnit.SECONDS);
+        redisDown = true;
+        for (int i = 0; i < 5; i++) {
+            distributedLimit.distributedLimit(prepared);
+        }
+        assertThat(fallback.isOpen()).isTrue();
+
+        TimeUnit.MILLISECONDS.sleep(OPEN_MILLIS + 50);
+        assertThat(distributedLimit.distributedLimit(prepared)).isTrue();
+        assertThat(calls).hasSize(6);
+
+        // 探测失败，重新熔断一个周期
+        assertThat(fallback.isOpen()).isTrue();
+        distributedLimit.distributedLimit(prepared);
+        assertThat(calls).hasSize(6);
+    }
+
+    /**
+     * 降级期间令牌不够时返回共享的拒绝结果，拒绝路径不分配对象
+     */
+    @Test
+    void fallbackRejectionIsShared() {
+        DistributedLimit.PreparedLimit prepared = distributedLimit.prepareRateLimit("k", 3, 10, TimeUnit.SECONDS, 3, 2);
+        redisDown = true;
+        assertThat(distributedLimit.rateLimit(prepared).isAllowed()).isTrue();
+
+        // 还剩 1 个令牌，不够消耗 2 个
+        DistributedLimit.RateLimitResult rejected = distributedLimit.rateLimit(prepared);
+        assertThat(rejected.isAllowed()).isFalse();
+        assertThat(rejected.getRemaining()).isZero();
+        assertThat(distributedLimit.rateLimit(prepared)).isSameAs(rejected);
+    }
+
+    /**
+     * 偶发的失败被成功打断时不累计
+     */
+    @Test
+    void successResetsFailureCount() {
+        DistributedLimit.PreparedLimit prepared = distributedLimit.prepareLimit("k", 100, 10, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; i++) {
+            redisDown = true;
+            for (int j = 0; j < 4; j++) {
+                distributedLimit.distributedLimit(prepared);
+            }
+            redisDown = false;
+            distributedLimit.distributedLimit(prepared);
+        }
+        assertThat(fallback.isOpen()).isFalse();
+    }
+
+    /**
+     * CROSSSLOT 不是 redis 故障：不熔断，改为逐个检查，之后不再尝试一次检查
+     */
+    @Test
+    void crossSlotFallsBackToPerKeyWithoutTrippingBreaker() {
+        clusterMode = true;
+        List<LimitSpec> specs = Arrays.asList(LimitSpec.of("user", 100, 10, TimeUnit.SECONDS),
+                LimitSpec.of("global", 100, 10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(distributedLimit.checkAll(specs)).isTrue();
+        }
+
+        assertThat(fallback.isOpen()).isFalse();
+        assertThat(calls.stream().filter("limitAll"::equals).count()).isEqualTo(1);
+        assertThat(calls.stream().filter("limit"::equals).count()).isEqualTo(20);
+    }
+}
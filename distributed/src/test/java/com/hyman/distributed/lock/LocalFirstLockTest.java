@@ -0,0 +1,135 @@
+package com.hyman.distributed.lock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalFirstLockTest extends RedisTestSupport {
+
+    private LockWatchdog watchdog;
+    private DistributedLock2 lock2;
+    private LocalFirstLock localFirstLock;
+
+    @BeforeEach
+    void setUp() {
+        watchdog = newWatchdog(3000);
+        lock2 = newLock2(watchdog);
+        localFirstLock = new LocalFirstLock();
+        ReflectionTestUtils.setField(localFirstLock, "lock2", lock2);
+        ReflectionTestUtils.setField(localFirstLock, "watchdog", watchdog);
+        ReflectionTestUtils.setField(localFirstLock, "maxLocalHandoffs", 16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        watchdog.stop();
+    }
+
+    /**
+     * 拿到本地锁、正在等待 redis 锁的线程被中断后，本地锁必须释放，其他线程之后还能加锁
+     */
+    @Test
+    void interruptedWaiterReleasesLocalLock() throws Exception {
+        String key = uniqueName("test:local-first");
+        // 其他 JVM 持有 redis 锁
+        assertThat(lock2.distributedLock(key, "other-jvm")).isTrue();
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean result = new AtomicBoolean(true);
+        Thread waiter = new Thread(() -> {
+            started.countDown();
+            result.set(localFirstLock.lock(key, 10_000));
+        });
+        waiter.start();
+        started.await();
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        waiter.interrupt();
+        waiter.join(5_000);
+        assertThat(waiter.isAlive()).isFalse();
+        assertThat(result.get()).isFalse();
+
+        lock2.distributedUnlock(key, "other-jvm");
+        assertThat(localFirstLock.lock(key, 1_000)).isTrue();
+        localFirstLock.unlock(key);
+    }
+
+    /**
+     * 持有者释放时唯一排队的线程被中断：持有者因为有人排队保留了租约，被中断的线程必须替它释放，否则 redis 的锁一直被续期
+     */
+    @Test
+    void interruptedWaiterReleasesHandedOffLease() throws Exception {
+        String key = uniqueName("test:local-first");
+        // 中断必须在排队的线程拿到本地锁之前发生，没有发生时重试
+        for (int attempt = 0; attempt < 20; attempt++) {
+            assertThat(localFirstLock.lock(key, 0)).isTrue();
+
+            CountDownLatch started = new CountDownLatch(1);
+            AtomicBoolean result = new AtomicBoolean();
+            Thread waiter = new Thread(() -> {
+                started.countDown();
+                result.set(localFirstLock.lock(key, 10_000));
+                if (result.get()) {
+                    localFirstLock.unlock(key);
+                }
+            });
+            waiter.start();
+            started.await();
+            TimeUnit.MILLISECONDS.sleep(100);
+
+            localFirstLock.unlock(key);
+            waiter.interrupt();
+            waiter.join(5_000);
+            assertThat(waiter.isAlive()).isFalse();
+            if (!result.get()) {
+                // 租约已经释放，其他 JVM 可以立即获取
+                assertThat(lock2.distributedLock(key, "other-jvm")).isTrue();
+                lock2.distributedUnlock(key, "other-jvm");
+                return;
+            }
+        }
+        throw new AssertionError("排队的线程总是在中断前拿到了锁");
+    }
+
+    @Test
+    void timedOutWaiterReleasesLocalLock() {
+        String key = uniqueName("test:local-first");
+        assertThat(lock2.distributedLock(key, "other-jvm")).isTrue();
+
+        assertThat(CompletableFuture.supplyAsync(() -> localFirstLock.lock(key, 100)).join()).isFalse();
+
+        lock2.distributedUnlock(key, "other-jvm");
+        assertThat(localFirstLock.lock(key, 1_000)).isTrue();
+        localFirstLock.unlock(key);
+    }
+
+    @Test
+    void leaseIsHandedOffToQueuedLocalThread() throws Exception {
+        String key = uniqueName("test:local-first");
+        assertThat(localFirstLock.lock(key, 0)).isTrue();
+        String uuid = redisTemplate.opsForValue().get(key);
+
+        CompletableFuture<String> next = CompletableFuture.supplyAsync(() -> {
+            if (!localFirstLock.lock(key, 5_000)) {
+                return null;
+            }
+            String held = redisTemplate.opsForValue().get(key);
+            localFirstLock.unlock(key);
+            return held;
+        });
+        TimeUnit.MILLISECONDS.sleep(200);
+        localFirstLock.unlock(key);
+
+        // 排队的本地线程直接接手同一个 redis 租约，最后一个持有者释放后 redis 锁被删除
+        assertThat(next.get(5, TimeUnit.SECONDS)).isEqualTo(uuid);
+        assertThat(redisTemplate.hasKey(key)).isFalse();
+    }
+}
@@ -0,0 +1,82 @@
+package com.hyman.distributed.lock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LockWatchdogTest extends RedisTestSupport {
+
+    private static final long LEASE_MILLIS = 300;
+
+    private LockWatchdog watchdog;
+    private DistributedLock2 lock2;
+
+    @BeforeEach
+    void setUp() {
+        watchdog = newWatchdog(LEASE_MILLIS);
+        lock2 = newLock2(watchdog);
+    }
+
+    @AfterEach
+    void tearDown() {
+        watchdog.stop();
+    }
+
+    @Test
+    void lockHeldLongerThanLeaseIsRenewed() throws Exception {
+        String key = uniqueName("test:watchdog");
+        assertThat(lock2.distributedLock(key, "holder")).isTrue();
+
+        TimeUnit.MILLISECONDS.sleep(LEASE_MILLIS * 4);
+
+        assertThat(redisTemplate.opsForValue().get(key)).isEqualTo("holder");
+        assertThat(redisTemplate.getExpire(key, TimeUnit.MILLISECONDS)).isPositive();
+        assertThat(lock2.distributedLock(key, "other")).isFalse();
+
+        lock2.distributedUnlock(key, "holder");
+        assertThat(watchdog.isWatching(key, "holder")).isFalse();
+        assertThat(lock2.distributedLock(key, "other")).isTrue();
+        lock2.distributedUnlock(key, "other");
+    }
+
+    /**
+     * 持有的锁多于一批时分批续期，每一批都要续上
+     */
+    @Test
+    void renewsMoreLocksThanOneBatch() throws Exception {
+        String prefix = uniqueName("test:watchdog:batch");
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            String key = prefix + ":" + i;
+            assertThat(lock2.distributedLock(key, "holder")).isTrue();
+            keys.add(key);
+        }
+
+        TimeUnit.MILLISECONDS.sleep(LEASE_MILLIS * 4);
+
+        for (String key : keys) {
+            assertThat(redisTemplate.opsForValue().get(key)).as(key).isEqualTo("holder");
+        }
+        for (String key : keys) {
+            lock2.distributedUnlock(key, "holder");
+        }
+    }
+
+    @Test
+    void lockExpiresAfterRenewalStops() throws Exception {
+        String key = uniqueName("test:watchdog");
+        assertThat(lock2.distributedLock(key, "holder")).isTrue();
+
+        // 模拟持有者宕机：看门狗不再续期，锁最多一个租约时间后过期
+        watchdog.stop();
+        TimeUnit.MILLISECONDS.sleep(LEASE_MILLIS * 2);
+
+        assertThat(redisTemplate.hasKey(key)).isFalse();
+    }
+}
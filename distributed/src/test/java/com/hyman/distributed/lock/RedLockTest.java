@@ -0,0 +1,262 @@
+package com.hyman.distributed.lock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * RedLock 需要多个独立的 redis 节点，使用 test.redis.port 开始的连续 3 个端口（如 6379、6380、6381），不可用时跳过。
+ * 宕机的节点用已经关闭的端口模拟，变慢的节点用延迟转发的代理模拟。
+ */
+class RedLockTest extends RedisTestSupport {
+
+    private static final long NODE_TIMEOUT_MILLIS = 100;
+
+    private RedLock redLock;
+    private final List<DelayProxy> proxies = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        if (redLock != null) {
+            redLock.shutdown();
+        }
+        proxies.forEach(DelayProxy::close);
+    }
+
+    private static int nodePort(int index) {
+        int port = PORT + index;
+        try (Jedis jedis = new Jedis(HOST, port, 500)) {
+            jedis.auth(PASSWORD);
+            jedis.ping();
+        } catch (Exception e) {
+            Assumptions.assumeTrue(false, "redis " + HOST + ":" + port + " 不可用，跳过");
+        }
+        return port;
+    }
+
+    private static JedisPool pool(int port) {
+        return new JedisPool(new JedisPoolConfig(), HOST, port, 2000, PASSWORD);
+    }
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private RedLock redLock(int... ports) {
+        List<JedisPool> pools = new ArrayList<>();
+        for (int port : ports) {
+            pools.add(pool(port));
+        }
+        redLock = new RedLock(pools, scriptRegistry, NODE_TIMEOUT_MILLIS);
+        return redLock;
+    }
+
+    private static String value(int port, String key) {
+        try (Jedis jedis = new Jedis(HOST, port, 500)) {
+            jedis.auth(PASSWORD);
+            return jedis.get(key);
+        }
+    }
+
+    private static void occupy(int port, String key) {
+        try (Jedis jedis = new Jedis(HOST, port, 500)) {
+            jedis.auth(PASSWORD);
+            jedis.psetex(key, 10_000, "other");
+        }
+    }
+
+    private static void awaitAbsent(int port, String key, String value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (value.equals(value(port, key))) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("锁没有释放：" + port + " " + key);
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    /**
+     * 一个节点被占用，另外两个成功即达到多数；有效时间为过期时间减去耗时和时钟漂移
+     */
+    @Test
+    void acquiresWithQuorumAndSubtractsDrift() throws Exception {
+        int a = nodePort(0), b = nodePort(1), c = nodePort(2);
+        String name = uniqueName("test:redlock");
+        occupy(c, "redlock:" + name);
+
+        long leaseMillis = 10_000;
+        long before = System.currentTimeMillis();
+        RedLock.Lease lease = redLock(a, b, c).tryLock(name, leaseMillis);
+        long after = System.currentTimeMillis();
+
+        assertThat(lease).isNotNull();
+        long drift = (long) (leaseMillis * 0.01) + 2;
+        assertThat(lease.getValidUntil()).isBetween(before + leaseMillis - drift, after + leaseMillis - drift);
+        assertThat(value(a, "redlock:" + name)).isEqualTo(lease.getValue());
+        assertThat(value(b, "redlock:" + name)).isEqualTo(lease.getValue());
+
+        redLock.unlock(lease);
+        awaitAbsent(a, "redlock:" + name, lease.getValue());
+        awaitAbsent(b, "redlock:" + name, lease.getValue());
+        // 别人的锁不受影响
+        assertThat(value(c, "redlock:" + name)).isEqualTo("other");
+    }
+
+    /**
+     * 达不到多数时失败，并释放已经获取的节点
+     */
+    @Test
+    void failsWithoutQuorumAndReleasesAcquiredNodes() throws Exception {
+        int a = nodePort(0), b = nodePort(1), c = nodePort(2);
+        String name = uniqueName("test:redlock");
+        occupy(b, "redlock:" + name);
+        occupy(c, "redlock:" + name);
+
+        assertThat(redLock(a, b, c).tryLock(name, 10_000)).isNull();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (value(a, "redlock:" + name) != null && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(value(a, "redlock:" + name)).isNull();
+    }
+
+    /**
+     * 两个节点宕机后已经不可能达到多数，不等变慢的节点超时就返回
+     */
+    @Test
+    void failsEarlyOnceQuorumIsUnreachable() throws Exception {
+        DelayProxy slow = new DelayProxy(nodePort(0), 1_000);
+        redLock(slow.port(), closedPort(), closedPort());
+
+        long start = System.currentTimeMillis();
+        assertThat(redLock.tryLock(uniqueName("test:redlock"), 10_000)).isNull();
+        assertThat(System.currentTimeMillis() - start).isLessThan(NODE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 调用方放弃之后才加锁成功的节点，释放排在加锁之后，锁会被删除而不是留到过期
+     */
+    @Test
+    void releasesNodeThatAcquiresAfterCallerGaveUp() throws Exception {
+        int a = nodePort(0);
+        DelayProxy slow = new DelayProxy(a, NODE_TIMEOUT_MILLIS * 3);
+        String name = uniqueName("test:redlock");
+        String key = "redlock:" + name;
+        redLock(slow.port(), closedPort(), closedPort());
+
+        assertThat(redLock.tryLock(name, 30_000)).isNull();
+        assertThat(value(a, key)).isNull();
+
+        // 代理转发了 SET（加锁成功），之后锁被释放
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (slow.forwarded("SET") == 0 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(slow.forwarded("SET")).isEqualTo(1);
+        while (slow.forwarded("EVALSHA") == 0 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        TimeUnit.MILLISECONDS.sleep(NODE_TIMEOUT_MILLIS * 5);
+        assertThat(value(a, key)).isNull();
+    }
+
+    /**
+     * 延迟转发的 TCP 代理：客户端发来的每段数据延迟 delayMillis 后再转发给 redis，统计转发过的命令
+     */
+    private final class DelayProxy {
+
+        private final ServerSocket server;
+        private final int target;
+        private final long delayMillis;
+        private final List<String> commands = new CopyOnWriteArrayList<>();
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private final AtomicInteger threads = new AtomicInteger();
+
+        DelayProxy(int target, long delayMillis) throws IOException {
+            this.server = new ServerSocket(0);
+            this.target = target;
+            this.delayMillis = delayMillis;
+            proxies.add(this);
+            daemon(this::accept);
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        int forwarded(String command) {
+            return (int) commands.stream().filter(command::equals).count();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket client = server.accept();
+                    Socket upstream = new Socket(HOST, target);
+                    sockets.addAll(Arrays.asList(client, upstream));
+                    daemon(() -> pump(client, upstream, true));
+                    daemon(() -> pump(upstream, client, false));
+                }
+            } catch (IOException e) {
+                // 代理关闭
+            }
+        }
+
+        private void pump(Socket from, Socket to, boolean delayed) {
+            byte[] buffer = new byte[8192];
+            try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    if (delayed) {
+                        TimeUnit.MILLISECONDS.sleep(delayMillis);
+                        // RESP 数组的第一个参数是命令名：*n\r\n$len\r\nCOMMAND\r\n
+                        String[] parts = new String(buffer, 0, n).split("\r\n");
+                        if (parts.length > 2) {
+                            commands.add(parts[2].toUpperCase());
+                        }
+                    }
+                    out.write(buffer, 0, n);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // 连接关闭
+            }
+        }
+
+        private void daemon(Runnable task) {
+            Thread thread = new Thread(task, "delay-proxy-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void close() {
+            try {
+                server.close();
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.hyman.distributed.lock;
+
+import com.hyman.distributed.lock.redisconf.RedisScriptRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * 需要 redis 的测试的公共部分，连接参数与 RedisConfig 相同，可以用 -Dtest.redis.host/port/password 覆盖。
+ * redis 不可用时跳过测试，不算失败。
+ */
+public abstract class RedisTestSupport {
+
+    protected static final String HOST = System.getProperty("test.redis.host", "127.0.0.1");
+    protected static final int PORT = Integer.getInteger("test.redis.port", 6379);
+    protected static final String PASSWORD = System.getProperty("test.redis.password", "123456");
+
+    protected static JedisPool jedisPool;
+    protected static JedisConnectionFactory connectionFactory;
+    protected static RedisTemplate<String, String> redisTemplate;
+    protected static RedisScriptRegistry scriptRegistry;
+    protected static RedisMessageListenerContainer listenerContainer;
+
+    @BeforeAll
+    static void connectRedis() {
+        Assumptions.assumeTrue(reachable(), "redis " + HOST + ":" + PORT + " 不可用，跳过");
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(32);
+        jedisPool = new JedisPool(poolConfig, HOST, PORT, 2000, PASSWORD);
+
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(HOST, PORT);
+        configuration.setPassword(PASSWORD);
+        connectionFactory = new JedisConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+
+        redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.setDefaultSerializer(new StringRedisSerializer());
+        redisTemplate.afterPropertiesSet();
+
+        scriptRegistry = new RedisScriptRegistry(RedisScriptRegistry.DEFAULT_LOCATION, redisTemplate);
+
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(connectionFactory);
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+    }
+
+    @AfterAll
+    static void closeRedis() throws Exception {
+        if (listenerContainer != null) {
+            listenerContainer.destroy();
+            listenerContainer = null;
+        }
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+            connectionFactory = null;
+        }
+        if (jedisPool != null) {
+            jedisPool.close();
+            jedisPool = null;
+        }
+    }
+
+    /**
+     * 按 Spring 的字段注入方式组装看门狗，调用方负责 stop
+     */
+    protected static LockWatchdog newWatchdog(long leaseMillis) {
+        LockWatchdog watchdog = new LockWatchdog();
+        ReflectionTestUtils.setField(watchdog, "scriptRegistry", scriptRegistry);
+        ReflectionTestUtils.setField(watchdog, "leaseMillis", leaseMillis);
+        watchdog.start();
+        return watchdog;
+    }
+
+    protected static DistributedLock2 newLock2(LockWatchdog watchdog) {
+        DistributedLock2 lock2 = new DistributedLock2();
+        ReflectionTestUtils.setField(lock2, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(lock2, "scriptRegistry", scriptRegistry);
+        ReflectionTestUtils.setField(lock2, "watchdog", watchdog);
+        return lock2;
+    }
+
+    /**
+     * 测试使用的 key 加上随机后缀，重复运行、并行运行互不影响
+     */
+    protected static String uniqueName(String prefix) {
+        return prefix + ":" + Long.toHexString(System.nanoTime());
+    }
+
+    private static boolean reachable() {
+        try (Jedis jedis = new Jedis(HOST, PORT, 500)) {
+            jedis.auth(PASSWORD);
+            return "PONG".equals(jedis.ping());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
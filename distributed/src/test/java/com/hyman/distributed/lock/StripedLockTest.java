@@ -0,0 +1,77 @@
+package com.hyman.distributed.lock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StripedLockTest extends RedisTestSupport {
+
+    private LockWatchdog watchdog;
+    private StripedLock stripedLock;
+
+    @BeforeEach
+    void setUp() {
+        watchdog = newWatchdog(3000);
+        stripedLock = new StripedLock();
+        ReflectionTestUtils.setField(stripedLock, "lock2", newLock2(watchdog));
+        ReflectionTestUtils.setField(stripedLock, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(stripedLock, "scriptRegistry", scriptRegistry);
+        ReflectionTestUtils.setField(stripedLock, "listenerContainer", listenerContainer);
+        ReflectionTestUtils.setField(stripedLock, "stripes", 16);
+        stripedLock.subscribe();
+    }
+
+    @AfterEach
+    void tearDown() {
+        watchdog.stop();
+    }
+
+    @Test
+    void lockAllTimesOutAndReleasesAcquiredStripes() {
+        String resource = uniqueName("test:striped");
+        List<String> subKeys = Arrays.asList("a", "b", "c");
+        String busy = "c";
+
+        assertThat(stripedLock.lock(resource, busy, "holder")).isTrue();
+        assertThat(stripedLock.lockAll(resource, subKeys, "other", 100)).isFalse();
+
+        // 超时后已经拿到的分段都已释放，只剩被占用的那一段
+        for (String subKey : subKeys) {
+            if (stripedLock.stripeOf(subKey) != stripedLock.stripeOf(busy)) {
+                assertThat(stripedLock.lock(resource, subKey, "probe")).isTrue();
+                stripedLock.unlock(resource, subKey, "probe");
+            }
+        }
+        stripedLock.unlock(resource, busy, "holder");
+    }
+
+    @Test
+    void lockAllWakesWhenStripeIsReleased() throws Exception {
+        String resource = uniqueName("test:striped");
+        assertThat(stripedLock.lock(resource, "x", "holder")).isTrue();
+
+        CompletableFuture<Long> acquiredAt = CompletableFuture.supplyAsync(() -> {
+            boolean locked = stripedLock.lockAll(resource, Collections.singletonList("x"), "waiter", 5_000);
+            return locked ? System.nanoTime() : -1L;
+        });
+        TimeUnit.MILLISECONDS.sleep(300);
+
+        long releasedAt = System.nanoTime();
+        stripedLock.unlock(resource, "x", "holder");
+        long wokeAt = acquiredAt.get(5, TimeUnit.SECONDS);
+
+        assertThat(wokeAt).isPositive();
+        // 释放通知唤醒，延迟远小于兜底轮询间隔
+        assertThat(TimeUnit.NANOSECONDS.toMillis(wokeAt - releasedAt)).isLessThan(80);
+        stripedLock.unlockAll(resource, Collections.singletonList("x"), "waiter");
+    }
+}
@@ -0,0 +1,115 @@
+package com.hyman.distributed.lock.lockconf;
+
+import com.hyman.distributed.lock.DistributedLimit;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LimitAspect 自身的开销：redis 调用替换为直接放行，只测量切面读取缓存的 LimiterSpec、计算 key、选择限流方式的时间。
+ * 对照组为同一个切点上什么都不做的切面（Spring AOP 代理本身的开销）和不经过代理的直接调用。
+ *
+ * 运行：mvn test-compile 之后，以测试 classpath 执行本类的 main 方法，或者 org.openjdk.jmh.Main LimitAspectBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LimitAspectBenchmark {
+
+    private Target direct;
+    private Target noop;
+    private Target limited;
+
+    @Setup
+    public void setUp() {
+        LimitAspect limitAspect = new LimitAspect();
+        limitAspect.distributedLimit = new AllowAllLimit();
+        limitAspect.limitKeyResolver = new LimitKeyResolver();
+
+        direct = new Target();
+        noop = proxy(new NoopAspect());
+        limited = proxy(limitAspect);
+    }
+
+    @Benchmark
+    public String direct() {
+        return direct.constantKey("u1");
+    }
+
+    @Benchmark
+    public String noopAspect() {
+        return noop.constantKey("u1");
+    }
+
+    @Benchmark
+    public String limitAspectConstantKey() {
+        return limited.constantKey("u1");
+    }
+
+    @Benchmark
+    public String limitAspectSpelKey() {
+        return limited.spelKey("u1");
+    }
+
+    private static Target proxy(Object aspect) {
+        AspectJProxyFactory factory = new AspectJProxyFactory(new Target());
+        factory.setProxyTargetClass(true);
+        factory.addAspect(aspect);
+        return factory.getProxy();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LimitAspectBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    public static class Target {
+
+        @DistriLimitAnno(limitKey = "bench", limit = 1000)
+        public String constantKey(String userId) {
+            return userId;
+        }
+
+        @DistriLimitAnno(limitKey = "bench", key = "#userId", limit = 1000)
+        public String spelKey(String userId) {
+            return userId;
+        }
+    }
+
+    @Aspect
+    public static class NoopAspect {
+
+        @Before("@annotation(com.hyman.distributed.lock.lockconf.DistriLimitAnno)")
+        public void before(JoinPoint joinPoint) {
+        }
+    }
+
+    /**
+     * 不访问 redis，直接放行
+     */
+    static class AllowAllLimit extends DistributedLimit {
+
+        @Override
+        public Boolean distributedLimit(PreparedLimit prepared) {
+            return Boolean.TRUE;
+        }
+    }
+}
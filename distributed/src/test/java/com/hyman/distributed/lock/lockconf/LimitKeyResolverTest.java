@@ -0,0 +1,60 @@
+package com.hyman.distributed.lock.lockconf;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LimitKeyResolverTest {
+
+    private final LimitKeyResolver resolver = new LimitKeyResolver();
+
+    @AfterEach
+    void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @SuppressWarnings("unused")
+    void order(String userId, long orderId) {
+    }
+
+    private Method method() throws NoSuchMethodException {
+        return getClass().getDeclaredMethod("order", String.class, long.class);
+    }
+
+    @Test
+    void resolvesMethodArguments() throws Exception {
+        assertThat(resolver.resolve(method(), "#userId + ':' + #orderId", new Object[]{"u1", 7L})).isEqualTo("u1:7");
+    }
+
+    @Test
+    void resolvesRequestAttribute() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute("tokenData", Collections.singletonMap("id", "42"));
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+        assertThat(resolver.resolve(method(), "#request.getAttribute('tokenData')['id']", new Object[]{"u1", 7L}))
+                .isEqualTo("42");
+    }
+
+    /**
+     * 取不到值时拒绝，而不是所有调用方共用 "null" 这个 key
+     */
+    @Test
+    void rejectsNullOrEmptyKey() throws Exception {
+        assertThatThrownBy(() -> resolver.resolve(method(), "#userId", new Object[]{null, 7L}))
+                .isInstanceOf(KeyNotResolvedException.class);
+        assertThatThrownBy(() -> resolver.resolve(method(), "#userId", new Object[]{"", 7L}))
+                .isInstanceOf(KeyNotResolvedException.class);
+        // 没有请求上下文时 #request 为 null，安全导航得到 null
+        assertThatThrownBy(() -> resolver.resolve(method(), "#request?.getAttribute('tokenData')", new Object[]{"u1", 7L}))
+                .isInstanceOf(KeyNotResolvedException.class);
+    }
+}
@@ -0,0 +1,49 @@
+package com.hyman.distributed.lock.lockconf;
+
+import com.hyman.distributed.lock.DistributedLimit;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LimiterSpecTest {
+
+    private final DistributedLimit distributedLimit = Mockito.mock(DistributedLimit.class);
+
+    @DistriLimitAnno(limitKey = "order", key = "#userId", limit = 5, globalLimit = 100)
+    void composite() {
+    }
+
+    @DistriLimitAnno(limitKey = "order", key = "#userId", limit = 5, globalLimit = 100, burst = 10)
+    void compositeWithBurst() {
+    }
+
+    @DistriLimitAnno(limitKey = "order", key = "#userId", limit = 5, globalLimit = 100, cost = 2)
+    void compositeWithCost() {
+    }
+
+    @DistriLimitAnno(limitKey = "order", key = "#userId", limit = 5, globalLimit = 100, burst = 10, hybrid = true)
+    void compositeWithHybrid() {
+    }
+
+    private LimiterSpec spec(String method) throws NoSuchMethodException {
+        return LimiterSpec.of(getClass().getDeclaredMethod(method).getAnnotation(DistriLimitAnno.class),
+                distributedLimit);
+    }
+
+    @Test
+    void compositeUsesSlidingWindows() throws Exception {
+        assertThat(spec("composite").mode).isEqualTo(LimiterSpec.Mode.COMPOSITE);
+    }
+
+    /**
+     * 组合限流不支持令牌桶，配置了令牌桶参数时报错，而不是悄悄改用滑动窗口
+     */
+    @Test
+    void compositeRejectsTokenBucketSettings() {
+        for (String method : new String[]{"compositeWithBurst", "compositeWithCost", "compositeWithHybrid"}) {
+            assertThatThrownBy(() -> spec(method)).as(method).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+}
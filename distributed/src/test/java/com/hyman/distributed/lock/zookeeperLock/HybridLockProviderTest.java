@@ -0,0 +1,210 @@
+package com.hyman.distributed.lock.zookeeperLock;
+
+import com.hyman.distributed.lock.DistributedLock2;
+import com.hyman.distributed.lock.LockLease;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 混合锁的模式切换：zookeeper 使用嵌入式服务，redis 由 mock 代替，每个节点可以单独设置为不可用
+ */
+class HybridLockProviderTest extends ZkTestSupport {
+
+    private static final long PROBE_MILLIS = 50;
+    private static final long RECOVER_MILLIS = 300;
+    private static final long DRAIN_MILLIS = 300;
+
+    /**
+     * 所有节点共用的 redis 锁：锁名 -> uuid
+     */
+    private final ConcurrentHashMap<String, String> redisLocks = new ConcurrentHashMap<>();
+    private volatile boolean lockErrors;
+
+    private DistributedLock2 lock2;
+    private String lockPath;
+    private String leaderPath;
+    private String modePath;
+    private final List<Node> nodes = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        lockPath = uniquePath("/locks");
+        leaderPath = uniquePath("/leaders");
+        modePath = uniquePath("/hybrid") + "/mode";
+        lock2 = Mockito.mock(DistributedLock2.class, invocation -> {
+            String method = invocation.getMethod().getName();
+            String key = invocation.getArgument(0);
+            if ("lockWithWatchdog".equals(method)) {
+                if (lockErrors) {
+                    throw new RedisConnectionFailureException("lock error");
+                }
+                return redisLocks.putIfAbsent(key, invocation.getArgument(1)) == null;
+            }
+            if ("distributedUnlock".equals(method)) {
+                redisLocks.remove(key, invocation.getArgument(1));
+            }
+            return null;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(Node::stop);
+        nodes.clear();
+    }
+
+    /**
+     * 一个节点探测失败，所有节点都切换到 zookeeper；能访问 redis 的节点仍然同时获取 redis 的锁
+     */
+    @Test
+    void probeFailureOnOneNodeSwitchesWholeCluster() throws Exception {
+        Node a = new Node();
+        Node b = new Node();
+        assertThat(a.provider.getMode()).isEqualTo("REDIS");
+
+        a.redisDown = true;
+        await(() -> "ZK".equals(a.provider.getMode()) && "ZK".equals(b.provider.getMode()));
+
+        // a 访问不了 redis，只获取 zookeeper 的锁
+        LockLease zkOnly = a.provider.tryLock("x", 1_000);
+        assertThat(zkOnly).isNotNull();
+        assertThat(redisLocks).doesNotContainKey("x");
+        assertThat(b.provider.tryLock("x", 100)).isNull();
+        zkOnly.release();
+
+        // b 能访问 redis，同时持有两把锁，与仍在 redis 模式的节点也互斥
+        LockLease both = b.provider.tryLock("x", 1_000);
+        assertThat(both).isNotNull();
+        assertThat(redisLocks).containsKey("x");
+        assertThat(a.provider.tryLock("x", 100)).isNull();
+        both.release();
+        assertThat(redisLocks).doesNotContainKey("x");
+    }
+
+    /**
+     * 加锁时 redis 报错只让这次加锁失败，不会让节点单独切换模式
+     */
+    @Test
+    void lockErrorDoesNotChangeMode() throws Exception {
+        Node a = new Node();
+        lockErrors = true;
+        assertThat(a.provider.tryLock("y", 100)).isNull();
+        TimeUnit.MILLISECONDS.sleep(PROBE_MILLIS * 4);
+        assertThat(a.provider.getMode()).isEqualTo("REDIS");
+
+        lockErrors = false;
+        LockLease lease = a.provider.tryLock("y", 100);
+        assertThat(lease).isNotNull();
+        lease.release();
+    }
+
+    /**
+     * 还有节点探测失败时不切回；全部恢复后由 leader 经过过渡期切回 redis，所有节点跟随
+     */
+    @Test
+    void leaderSwitchesBackThroughDrainingOnlyAfterEveryNodeRecovers() throws Exception {
+        Node a = new Node();
+        Node b = new Node();
+        a.redisDown = true;
+        await(() -> "ZK".equals(b.provider.getMode()));
+
+        TimeUnit.MILLISECONDS.sleep(RECOVER_MILLIS * 3);
+        assertThat(a.provider.getMode()).isEqualTo("ZK");
+        assertThat(b.provider.getMode()).isEqualTo("ZK");
+
+        a.redisDown = false;
+        await(() -> "DRAINING".equals(b.provider.getMode()));
+        await(() -> !"ZK".equals(a.provider.getMode()));
+        await(() -> "REDIS".equals(a.provider.getMode()) && "REDIS".equals(b.provider.getMode()));
+
+        LockLease lease = a.provider.tryLock("z", 100);
+        assertThat(lease).isNotNull();
+        assertThat(redisLocks).containsKey("z");
+        assertThat(b.provider.tryLock("z", 100)).isNull();
+        lease.release();
+    }
+
+    /**
+     * redis 不可用时只持有 zookeeper 锁的租约，超过过渡期还没有释放时不切回 redis，释放后才切回
+     */
+    @Test
+    void outstandingZkOnlyLeaseBlocksSwitchBack() throws Exception {
+        Node a = new Node();
+        Node b = new Node();
+        a.redisDown = true;
+        await(() -> "ZK".equals(a.provider.getMode()) && "ZK".equals(b.provider.getMode()));
+
+        LockLease zkOnly = a.provider.tryLock("long", 1_000);
+        assertThat(zkOnly).isNotNull();
+        assertThat(redisLocks).doesNotContainKey("long");
+
+        a.redisDown = false;
+        await(() -> "DRAINING".equals(b.provider.getMode()));
+        TimeUnit.MILLISECONDS.sleep(DRAIN_MILLIS * 3);
+        assertThat(a.provider.getMode()).isEqualTo("DRAINING");
+        assertThat(b.provider.getMode()).isEqualTo("DRAINING");
+        // 过渡期内其他节点同时获取两把锁，仍与它互斥
+        assertThat(b.provider.tryLock("long", 100)).isNull();
+
+        zkOnly.release();
+        await(() -> "REDIS".equals(a.provider.getMode()) && "REDIS".equals(b.provider.getMode()));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("等待超时");
+            }
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+    }
+
+    /**
+     * 一个应用节点：独立的 zookeeper 会话和 redis 连接
+     */
+    private final class Node {
+
+        private volatile boolean redisDown;
+        private final ZkLockService lockService;
+        private final HybridLockProvider provider;
+
+        @SuppressWarnings("unchecked")
+        Node() throws Exception {
+            CuratorFramework nodeClient = newClient();
+            lockService = new ZkLockService(nodeClient, lockPath, 100, 60_000, 1);
+            ZkLockProvider zkLockProvider = new ZkLockProvider(nodeClient, lockService, lockPath, leaderPath);
+            RedisTemplate<String, String> redisTemplate = Mockito.mock(RedisTemplate.class, invocation -> {
+                if (!"execute".equals(invocation.getMethod().getName())) {
+                    return null;
+                }
+                if (redisDown) {
+                    throw new RedisConnectionFailureException("redis down");
+                }
+                return "run-1";
+            });
+            provider = new HybridLockProvider(lock2, redisTemplate, zkLockProvider, nodeClient, modePath, leaderPath,
+                    PROBE_MILLIS, RECOVER_MILLIS, DRAIN_MILLIS);
+            provider.start();
+            nodes.add(this);
+        }
+
+        void stop() {
+            provider.stop();
+            lockService.shutdown();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.hyman.distributed.lock.zookeeperLock;
+
+import com.hyman.distributed.lock.LockLease;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ZkLockReaperTest extends ZkTestSupport {
+
+    private String lockPath;
+    private String leaderPath;
+    private ZkLockService lockService;
+    private final List<ZkLockReaper> reapers = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        lockPath = uniquePath("/locks");
+        leaderPath = uniquePath("/leaders");
+        lockService = new ZkLockService(client, lockPath, 100, 60_000, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        reapers.forEach(ZkLockReaper::stop);
+        reapers.clear();
+        lockService.shutdown();
+    }
+
+    /**
+     * 定时任务的周期设置得很长，测试中手动调用 reap
+     */
+    private ZkLockReaper reaper(CuratorFramework node, int maxOpsPerTick) throws Exception {
+        ZkLockReaper reaper = new ZkLockReaper(node, lockPath, leaderPath, TimeUnit.HOURS.toMillis(1), 100_000,
+                maxOpsPerTick);
+        reaper.start();
+        reapers.add(reaper);
+        return reaper;
+    }
+
+    private void useLocks(String... names) throws Exception {
+        for (String name : names) {
+            assertThat(lockService.tryLock(name, 1, TimeUnit.SECONDS)).isTrue();
+            lockService.unlock(name);
+        }
+    }
+
+    private boolean exists(String name) throws Exception {
+        return client.checkExists().forPath(ZkLockPaths.lockPath(lockPath, name)) != null;
+    }
+
+    private static ZkLockReaper awaitLeader(ZkLockReaper... candidates) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            for (ZkLockReaper candidate : candidates) {
+                if (candidate.isLeader()) {
+                    return candidate;
+                }
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        throw new AssertionError("没有选出 leader");
+    }
+
+    @Test
+    void emptyParentIsDeletedOnSecondSweepOnlyIfUnchanged() throws Exception {
+        ZkLockReaper reaper = reaper(client, 10_000);
+        awaitLeader(reaper);
+        useLocks("idle", "busy");
+
+        assertThat(reaper.reap()).isZero();
+        // 两轮之间再次使用的锁不删除
+        useLocks("busy");
+        assertThat(reaper.reap()).isEqualTo(1);
+        assertThat(exists("idle")).isFalse();
+        assertThat(exists("busy")).isTrue();
+
+        // 持有中的锁不删除
+        assertThat(lockService.tryLock("busy", 1, TimeUnit.SECONDS)).isTrue();
+        reaper.reap();
+        reaper.reap();
+        assertThat(exists("busy")).isTrue();
+        lockService.unlock("busy");
+    }
+
+    @Test
+    void onlyTheLeaderReaps() throws Exception {
+        ZkLockReaper first = reaper(client, 10_000);
+        ZkLockReaper second = reaper(newClient(), 10_000);
+        ZkLockReaper leader = awaitLeader(first, second);
+        ZkLockReaper follower = leader == first ? second : first;
+        useLocks("a", "b");
+
+        follower.reap();
+        follower.reap();
+        assertThat(exists("a")).isTrue();
+
+        leader.reap();
+        assertThat(leader.reap()).isEqualTo(2);
+        assertThat(exists("a")).isFalse();
+        assertThat(exists("b")).isFalse();
+    }
+
+    /**
+     * 与清理任务同名的 @LeaderOnly 组是另一个选举，两边各自有 leader
+     */
+    @Test
+    void userGroupWithSameNameDoesNotJoinReaperElection() throws Exception {
+        ZkLockReaper reaper = reaper(client, 10_000);
+        awaitLeader(reaper);
+        ZkLockProvider provider = new ZkLockProvider(newClient(), lockService, lockPath, leaderPath);
+        try {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!provider.isLeader("zk-lock-reaper") && System.currentTimeMillis() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertThat(provider.isLeader("zk-lock-reaper")).isTrue();
+            assertThat(reaper.isLeader()).isTrue();
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    void internalLeaderPathIsReservedForUserGroups() {
+        ZkLockProvider provider = new ZkLockProvider(client, lockService, lockPath, leaderPath);
+        assertThatThrownBy(() -> provider.isLeader(ZkLockPaths.INTERNAL_LEADERS))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * 信号量释放后父节点下还有空的 locks、leases，两轮都没有变化时连同它们一起删除，之后还能正常使用
+     */
+    @Test
+    void releasedSemaphoreIsReaped() throws Exception {
+        ZkLockReaper reaper = reaper(client, 10_000);
+        awaitLeader(reaper);
+        ZkLockProvider provider = new ZkLockProvider(client, lockService, lockPath, leaderPath);
+        String name = ZkLockProvider.SEMAPHORE_PREFIX + "pool";
+
+        LockLease lease = provider.tryAcquire("pool", 2, 1, 1_000, 0);
+        assertThat(lease).isNotNull();
+        reaper.reap();
+        assertThat(reaper.reap()).isZero();
+        assertThat(exists(name)).isTrue();
+
+        lease.release();
+        assertThat(client.getChildren().forPath(ZkLockPaths.lockPath(lockPath, name))).isNotEmpty();
+        assertThat(reaper.reap()).isZero();
+        assertThat(reaper.reap()).isEqualTo(1);
+        assertThat(exists(name)).isFalse();
+
+        LockLease again = provider.tryAcquire("pool", 2, 2, 1_000, 0);
+        assertThat(again).isNotNull();
+        again.release();
+    }
+
+    /**
+     * 每次执行的访问次数有上限，没有遍历完的下次继续，多次执行后完成清理
+     */
+    @Test
+    void workPerTickIsBounded() throws Exception {
+        ZkLockReaper reaper = reaper(client, 3);
+        awaitLeader(reaper);
+        String[] names = new String[20];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "lock-" + i;
+        }
+        useLocks(names);
+
+        int deleted = 0;
+        int ticks = 0;
+        while (deleted < names.length && ticks < 1_000) {
+            int once = reaper.reap();
+            assertThat(once).isLessThanOrEqualTo(3);
+            deleted += once;
+            ticks++;
+        }
+        assertThat(deleted).isEqualTo(names.length);
+        assertThat(ticks).isGreaterThan(2);
+        for (String name : names) {
+            assertThat(exists(name)).isFalse();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.hyman.distributed.lock.zookeeperLock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ZkLockServiceTest extends ZkTestSupport {
+
+    private static final long IDLE_MILLIS = 200;
+
+    private ZkLockService lockService;
+    private ExecutorService holder;
+
+    @BeforeEach
+    void setUp() {
+        lockService = new ZkLockService(client, uniquePath("/locks"), 2, IDLE_MILLIS, 1);
+        holder = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void tearDown() {
+        lockService.shutdown();
+        holder.shutdownNow();
+    }
+
+    @Test
+    void idleMutexesAreEvictedAndHeldOnesAreKept() throws Exception {
+        assertThat(lockService.tryLock("held", 1, TimeUnit.SECONDS)).isTrue();
+        assertThat(lockService.tryLock("idle", 1, TimeUnit.SECONDS)).isTrue();
+        lockService.unlock("idle");
+        assertThat(lockService.getCachedCount()).isEqualTo(2);
+
+        TimeUnit.MILLISECONDS.sleep(IDLE_MILLIS * 3);
+        assertThat(lockService.getCachedCount()).isEqualTo(1);
+
+        // 持有中的锁没有被清理，重入、释放都使用同一个 InterProcessMutex
+        assertThat(lockService.tryLock("held", 0, TimeUnit.SECONDS)).isTrue();
+        lockService.unlock("held");
+        lockService.unlock("held");
+    }
+
+    @Test
+    void exceedingMaxCachedEvictsIdleMutexesImmediately() throws Exception {
+        for (String name : new String[]{"a", "b", "c"}) {
+            assertThat(lockService.tryLock(name, 1, TimeUnit.SECONDS)).isTrue();
+            lockService.unlock(name);
+        }
+        assertThat(lockService.getCachedCount()).isLessThanOrEqualTo(2);
+    }
+
+    /**
+     * 非持有者调用 unlock 抛出异常，并且不能减少持有者的使用计数，否则持有中的锁会被当作空闲的清理掉
+     */
+    @Test
+    void unlockByNonOwnerDoesNotReleaseUsage() throws Exception {
+        assertThat(holder.submit(() -> lockService.tryLock("shared", 1, TimeUnit.SECONDS)).get()).isTrue();
+
+        assertThatThrownBy(() -> lockService.unlock("shared")).isInstanceOf(IllegalMonitorStateException.class);
+
+        TimeUnit.MILLISECONDS.sleep(IDLE_MILLIS * 3);
+        assertThat(lockService.getCachedCount()).isEqualTo(1);
+
+        // 持有者仍然可以用同一个实例释放
+        holder.submit(() -> {
+            lockService.unlock("shared");
+            return null;
+        }).get();
+        assertThat(lockService.tryLock("shared", 0, TimeUnit.SECONDS)).isTrue();
+        lockService.unlock("shared");
+    }
+
+    /**
+     * 等待时间从调用 lockAsync 时开始计算：只有一个异步线程时，排在后面的请求不会在排队之后再等待完整的时间
+     */
+    @Test
+    void lockAsyncWaitIncludesQueueTime() throws Exception {
+        assertThat(lockService.tryLock("busy", 1, TimeUnit.SECONDS)).isTrue();
+
+        long start = System.nanoTime();
+        CompletableFuture<ZkLockService.Lease> first = lockService.lockAsync("busy", 500, TimeUnit.MILLISECONDS);
+        CompletableFuture<ZkLockService.Lease> second = lockService.lockAsync("busy", 300, TimeUnit.MILLISECONDS);
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isNull();
+        assertThat(second.get(5, TimeUnit.SECONDS)).isNull();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertThat(elapsed).isLessThan(750);
+
+        lockService.unlock("busy");
+        ZkLockService.Lease lease = lockService.lockAsync("busy", 1, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+        assertThat(lease).isNotNull();
+        lockService.unlock(lease);
+    }
+}
@@ -0,0 +1,76 @@
+package com.hyman.distributed.lock.zookeeperLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 需要 zookeeper 的测试的公共部分：在测试进程内启动一个单机的 zookeeper（随机端口、临时目录），测试结束后关闭并删除数据
+ */
+public abstract class ZkTestSupport {
+
+    private static File dataDir;
+    private static ZooKeeperServer server;
+    private static ServerCnxnFactory factory;
+    private static final List<CuratorFramework> clients = new ArrayList<>();
+
+    protected static String connectString;
+
+    /**
+     * 测试默认使用的客户端，相当于一个节点
+     */
+    protected static CuratorFramework client;
+
+    @BeforeAll
+    static void startZooKeeper() throws Exception {
+        dataDir = Files.createTempDirectory("zk-test").toFile();
+        server = new ZooKeeperServer(dataDir, dataDir, 2000);
+        factory = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 100);
+        factory.startup(server);
+        connectString = "127.0.0.1:" + factory.getLocalPort();
+        client = newClient();
+    }
+
+    @AfterAll
+    static void stopZooKeeper() {
+        for (CuratorFramework created : clients) {
+            created.close();
+        }
+        clients.clear();
+        factory.shutdown();
+        server.shutdown();
+        FileSystemUtils.deleteRecursively(dataDir);
+    }
+
+    /**
+     * 新建一个客户端（会话），用于模拟另一个节点，测试结束时统一关闭
+     */
+    protected static CuratorFramework newClient() throws InterruptedException {
+        CuratorFramework created = CuratorFrameworkFactory.newClient(connectString, 5000, 3000, new RetryOneTime(100));
+        created.start();
+        if (!created.blockUntilConnected(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("连接 zookeeper 超时：" + connectString);
+        }
+        clients.add(created);
+        return created;
+    }
+
+    /**
+     * 测试使用的路径加上随机后缀，同一个 zookeeper 中的测试互不影响
+     */
+    protected static String uniquePath(String prefix) {
+        return prefix + "-" + Long.toHexString(System.nanoTime());
+    }
+}
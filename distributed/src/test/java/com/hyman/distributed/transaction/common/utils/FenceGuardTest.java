@@ -0,0 +1,24 @@
+package com.hyman.distributed.transaction.common.utils;
+
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.hyman.distributed.transaction.pojo.entity.Customer;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FenceGuardTest {
+
+    @Test
+    void fencedUpdateSetsTokenAndGuardsWithLessOrEqual() {
+        UpdateWrapper<Customer> update = new UpdateWrapper<Customer>()
+                .set("user_num", "2")
+                .eq("user_id", "u1");
+
+        FenceGuard.fenced(update, 42L);
+
+        assertThat(update.getSqlSet()).contains("fence_token = 42");
+        // 同一个持有者的第二次更新（行上已经是自己的 token）也要能匹配
+        assertThat(update.getSqlSegment()).contains("fence_token <= #{ew.paramNameValuePairs.");
+        assertThat(update.getParamNameValuePairs()).containsValue(42L);
+    }
+}